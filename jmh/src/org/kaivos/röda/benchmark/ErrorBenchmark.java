@@ -0,0 +1,65 @@
+package org.kaivos.röda.benchmark;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static org.kaivos.röda.Interpreter.INTERPRETER;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.RödaStream;
+import org.kaivos.röda.RödaValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of a program that raises and catches errors in a
+ * loop, with and without debugging. Without debugging, Röda errors do not
+ * capture Java stack traces.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErrorBenchmark {
+
+	@Param({ "true", "false" })
+	public boolean enableDebug;
+
+	private RödaScope scope;
+	private RödaValue main;
+
+	@Setup
+	public void setup() {
+		INTERPRETER.populateBuiltins();
+		INTERPRETER.enableDebug = enableDebug;
+		scope = new RödaScope(INTERPRETER.G);
+		INTERPRETER.load(Workloads.read("errors.röd"), "errors.röd", scope, true);
+		main = scope.resolve("main");
+	}
+
+	@TearDown
+	public void tearDown() {
+		INTERPRETER.enableDebug = true;
+	}
+
+	@Benchmark
+	public void tryCatch(Blackhole bh) {
+		RödaStream in = RödaStream.makeEmptyStream();
+		RödaStream out = RödaStream.makeStream(bh::consume, () -> null, () -> {}, () -> true);
+		INTERPRETER.exec("<jmh>", 0, main, emptyList(), emptyList(), emptyMap(), scope, in, out);
+	}
+}
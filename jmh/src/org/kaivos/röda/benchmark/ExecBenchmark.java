@@ -0,0 +1,68 @@
+package org.kaivos.röda.benchmark;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static org.kaivos.röda.Interpreter.INTERPRETER;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.RödaStream;
+import org.kaivos.röda.RödaValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the execution of the <code>main</code> function of a workload. The
+ * program is loaded once per trial, so only evaluation is measured.
+ *
+ * The workloads are in the <code>jmh/workloads</code> directory. They cover
+ * integer arithmetic, function calls, pipelines of user functions and the most
+ * commonly used builtins.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecBenchmark {
+
+	@Param({ "arithmetic", "small_integers", "calls", "pipes", "builtin_sort", "builtin_uniq", "builtin_json",
+			"builtin_split", "builtin_match", "parallel_map", "string_concat", "json_serialize_script",
+			"json_serialize_builtin" })
+	public String workload;
+
+	@Param({ "interpret", "optimize", "compile" })
+	public String mode;
+
+	private RödaScope scope;
+	private RödaValue main;
+
+	@Setup
+	public void setup() {
+		INTERPRETER.populateBuiltins();
+		INTERPRETER.enableOptimization = !mode.equals("interpret");
+		INTERPRETER.enableCompilation = mode.equals("compile");
+		scope = new RödaScope(INTERPRETER.G);
+		INTERPRETER.load(Workloads.read(workload + ".röd"), workload + ".röd", scope, true);
+		main = scope.resolve("main");
+	}
+
+	@Benchmark
+	public void exec(Blackhole bh) {
+		RödaStream in = RödaStream.makeEmptyStream();
+		RödaStream out = RödaStream.makeStream(bh::consume, () -> null, () -> {}, () -> true);
+		INTERPRETER.exec("<jmh>", 0, main, emptyList(), emptyList(), emptyMap(), scope, in, out);
+	}
+}
@@ -0,0 +1,55 @@
+package org.kaivos.röda.benchmark;
+
+import static org.kaivos.röda.Interpreter.INTERPRETER;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kaivos.röda.Interpreter.RödaScope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to tokenize, parse and load a program into a new
+ * scope. The example programs are used as input, except for
+ * <code>kuha.röd</code>, which imports other files, and <code>tietueet.röd</code>,
+ * which uses old syntax.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+	@Param({ "json.röd", "simple_compiler.röd", "walker.röd", "http_server.röd" })
+	public String program;
+
+	@Param({ "false", "true" })
+	public boolean enableOptimization;
+
+	private String code;
+
+	@Setup
+	public void setup() {
+		INTERPRETER.populateBuiltins();
+		INTERPRETER.enableOptimization = enableOptimization;
+		code = Workloads.read(program);
+	}
+
+	@Benchmark
+	public RödaScope load() {
+		RödaScope scope = new RödaScope(INTERPRETER.G);
+		INTERPRETER.load(code, program, scope, true);
+		return scope;
+	}
+}
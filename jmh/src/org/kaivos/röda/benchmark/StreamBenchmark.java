@@ -0,0 +1,84 @@
+package org.kaivos.röda.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.kaivos.röda.RödaStream;
+import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.type.RödaInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of the streams that connect the commands of a
+ * pipeline. A producer thread pushes {@value #VALUES} values to the stream,
+ * one by one or in batches with {@link RödaStream#pushAll(List)}, and the
+ * benchmark thread pulls them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+
+	private static final int VALUES = 100000;
+
+	@Param({ "pipe", "pipe_batched", "stream" })
+	public String kind;
+
+	private RödaStream makeStream() {
+		switch (kind) {
+		case "pipe":
+		case "pipe_batched": return RödaStream.makePipe();
+		case "stream": return RödaStream.makeStream();
+		default: throw new IllegalArgumentException(kind);
+		}
+	}
+
+	private static void produce(RödaStream stream) {
+		for (int i = 0; i < VALUES; i++)
+			stream.push(RödaInteger.of(i));
+		stream.finish();
+	}
+
+	private static void produceBatches(RödaStream stream) {
+		List<RödaValue> batch = new ArrayList<>(RödaStream.BATCH_SIZE);
+		for (int i = 0; i < VALUES; i++) {
+			batch.add(RödaInteger.of(i));
+			if (batch.size() == RödaStream.BATCH_SIZE) {
+				stream.pushAll(batch);
+				batch.clear();
+			}
+		}
+		stream.pushAll(batch);
+		stream.finish();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES)
+	public void transfer(Blackhole bh) throws InterruptedException {
+		RödaStream stream = makeStream();
+		Thread producer = new Thread(() -> {
+			if (kind.equals("pipe_batched")) produceBatches(stream);
+			else produce(stream);
+		});
+		producer.start();
+		RödaValue value;
+		while ((value = stream.pull()) != null)
+			bh.consume(value);
+		producer.join();
+	}
+}
@@ -0,0 +1,29 @@
+package org.kaivos.röda.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the Röda programs used by the benchmarks from the classpath.
+ */
+final class Workloads {
+
+	private Workloads() {}
+
+	static String read(String name) {
+		try (InputStream in = Workloads.class.getResourceAsStream("/" + name)) {
+			if (in == null) throw new IllegalArgumentException("workload not found: " + name);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				bytes.write(buffer, 0, n);
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package org.kaivos.röda;
+
+import static org.kaivos.röda.Parser.parse;
+import static org.kaivos.röda.Parser.t;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.kaivos.röda.Parser.ProgramTree;
+
+/**
+ * AstCache stores the syntax trees of parsed source files in a directory, so
+ * that a file that has not changed does not have to be tokenized and parsed
+ * again when it is loaded the next time.
+ *
+ * An entry is identified by the absolute path of the file and the name used
+ * for it in error messages. It records a hash of the contents of the file, and
+ * the cached tree is used only if the hash of the current contents matches it.
+ * The entry also records the version of the interpreter and
+ * {@link #FORMAT_VERSION}, so that trees of other versions are never read.
+ *
+ * Only the syntax tree classes and the collections used by them can be read
+ * from an entry.
+ *
+ * The cache is only an optimization: entries that cannot be read or written
+ * are ignored and the file is parsed normally.
+ */
+public class AstCache {
+
+	/**
+	 * The version of the entry format. It must be incremented whenever the
+	 * serialized fields of the syntax tree classes change.
+	 */
+	public static final int FORMAT_VERSION = 2;
+
+	private static final int HASH_LENGTH = 32;
+
+	private final File directory;
+
+	public AstCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the default cache directory, <code>$XDG_CACHE_HOME/röda/ast</code>
+	 * or <code>~/.cache/röda/ast</code>.
+	 */
+	public static File defaultDirectory() {
+		String cacheHome = System.getenv("XDG_CACHE_HOME");
+		File base = cacheHome != null && !cacheHome.isEmpty() ? new File(cacheHome)
+				: new File(System.getProperty("user.home"), ".cache");
+		return new File(new File(base, "röda"), "ast");
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	ProgramTree load(File file, String filename) throws IOException {
+		String path = file.getAbsolutePath();
+		File entry = new File(directory, hex(sha256(path + "\0" + filename)) + ".ast");
+		String code = IOUtils.readSource(file);
+		byte[] hash = sha256(code);
+
+		if (entry.isFile()) {
+			try (ObjectInputStream in = new TreeInputStream(
+					new BufferedInputStream(new FileInputStream(entry)))) {
+				if (in.readUTF().equals(Röda.RÖDA_VERSION_STRING) && in.readInt() == FORMAT_VERSION
+						&& in.readUTF().equals(path) && in.readUTF().equals(filename)) {
+					byte[] cachedHash = new byte[HASH_LENGTH];
+					in.readFully(cachedHash);
+					if (Arrays.equals(hash, cachedHash))
+						return (ProgramTree) in.readObject();
+				}
+			} catch (IOException | ClassNotFoundException | ClassCastException e) {
+				// rikkinäinen tai vanhentunut tietue, jäsennetään tiedosto uudelleen
+			}
+		}
+
+		ProgramTree program = parse(t.tokenize(code, filename));
+		store(entry, path, filename, hash, program);
+		return program;
+	}
+
+	private void store(File entry, String path, String filename, byte[] hash, ProgramTree program) {
+		File tmp = null;
+		try {
+			Files.createDirectories(directory.toPath());
+			tmp = File.createTempFile("ast", ".tmp", directory);
+			try (ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				out.writeUTF(Röda.RÖDA_VERSION_STRING);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(path);
+				out.writeUTF(filename);
+				out.write(hash);
+				out.writeObject(program);
+			}
+			Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// välimuistiin kirjoittaminen ei ole välttämätöntä
+			if (tmp != null) tmp.delete();
+		}
+	}
+
+	/**
+	 * An ObjectInputStream that reads only syntax trees, so that a tampered
+	 * cache entry cannot make the interpreter deserialize other classes.
+	 */
+	private static final class TreeInputStream extends ObjectInputStream {
+		private static final Set<String> COLLECTIONS = new HashSet<>(Arrays.asList(
+				"java.lang.Enum",
+				"java.util.ArrayList",
+				"java.util.LinkedList",
+				"java.util.Arrays$ArrayList",
+				"java.util.Collections$EmptyList",
+				"java.util.Collections$UnmodifiableCollection",
+				"java.util.Collections$UnmodifiableList",
+				"java.util.Collections$UnmodifiableRandomAccessList",
+				"java.util.regex.Pattern",
+				"[Ljava.lang.String;"));
+
+		TreeInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			String name = desc.getName();
+			// Arrays.asList-listojen taulukot ovat puuluokkien taulukoita
+			if (!name.startsWith("org.kaivos.röda.Parser$") && !name.startsWith("[Lorg.kaivos.röda.Parser$")
+					&& !COLLECTIONS.contains(name))
+				throw new InvalidClassException(name, "not a syntax tree class");
+			return super.resolveClass(desc);
+		}
+	}
+
+	private static byte[] sha256(String text) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes)
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+}
@@ -44,10 +44,12 @@ import org.kaivos.röda.commands.KeysPopulator;
 import org.kaivos.röda.commands.MatchPopulator;
 import org.kaivos.röda.commands.MathPopulator;
 import org.kaivos.röda.commands.NamePopulator;
+import org.kaivos.röda.commands.ParallelPopulator;
 import org.kaivos.röda.commands.ParseNumPopulator;
 import org.kaivos.röda.commands.PushAndPullPopulator;
 import org.kaivos.röda.commands.RandomPopulator;
 import org.kaivos.röda.commands.ReadAndWritePopulator;
+import org.kaivos.röda.commands.RegexCacheStatsPopulator;
 import org.kaivos.röda.commands.ReplacePopulator;
 import org.kaivos.röda.commands.SearchPopulator;
 import org.kaivos.röda.commands.SeqPopulator;
@@ -122,6 +124,7 @@ public class Builtins {
 		UniqPopulator.populateUniq(S);
 		ReducePopulator.populateReduce(S);
 		FilterPopulator.populateFilterAndGrep(I, S);
+		ParallelPopulator.populateParallelMapAndFilter(I, S);
 		EnumPopulator.populateEnum(S);
 		if (I.enableProfiling) I.popTimer("<populate other stream operations>");
 
@@ -131,11 +134,12 @@ public class Builtins {
 		SearchPopulator.populateSearch(S);
 		MatchPopulator.populateMatch(S);
 		ReplacePopulator.populateReplace(S);
+		RegexCacheStatsPopulator.populateRegexCacheStats(S);
 
 		/* Parserit */
 
 		SplitPopulator.populateSplit(S);
-		JsonPopulator.populateJson(S);
+		JsonPopulator.populateJson(I, S);
 		ParseNumPopulator.populateParseNum(S);
 		BtosAndStobPopulator.populateBtosAndStob(S);
 		StrsizePopulator.populateStrsize(S);
@@ -200,11 +204,10 @@ public class Builtins {
 					if (back) _out.unpull(v);
 					else _out.push(v);
 				}
+			} else if (back) {
+				for (RödaValue v : a) _out.unpull(v);
 			} else {
-				for (RödaValue v : a) {
-					if (back) _out.unpull(v);
-					else _out.push(v);
-				}
+				_out.pushAll(a);
 			}
 		}, Arrays.asList(new Parameter("values", false)), true);
 	}
@@ -0,0 +1,610 @@
+package org.kaivos.röda;
+
+import static org.kaivos.röda.Interpreter.typeMismatch;
+import static org.kaivos.röda.Interpreter.unknownName;
+import static org.kaivos.röda.RödaValue.BOOLEAN;
+import static org.kaivos.röda.RödaValue.LIST;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.kaivos.röda.Interpreter.CompiledExpression;
+import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.Parser.ExpressionTree;
+import org.kaivos.röda.Parser.ExpressionTree.CType;
+import org.kaivos.röda.type.RödaBoolean;
+import org.kaivos.röda.type.RödaInteger;
+import org.kaivos.röda.type.RödaList;
+import org.kaivos.röda.type.RödaString;
+
+/**
+ * BytecodeCompiler compiles expressions to JVM classes.
+ *
+ * Each compiled expression becomes a class of its own, whose eval method
+ * evaluates the whole expression tree with direct method calls. Unlike in a
+ * tree of closures, there are no interface calls between the nodes, so HotSpot
+ * can inline and optimize the expression as one method. Subexpressions that
+ * the compiler does not support, such as blocks and statement expressions, are
+ * evaluated by calling their closures. Statements are always interpreted.
+ *
+ * The generated code behaves like the closures created by the interpreter: the
+ * subexpressions are pushed to the call stack when debugging is enabled, and
+ * other exceptions than {@link Interpreter.RödaException}s thrown by them are
+ * converted in the same way.
+ *
+ * The classes are generated in-process, and each is loaded with a class loader
+ * of its own, so that it can be unloaded when the program no longer uses it.
+ */
+final class BytecodeCompiler {
+
+	private BytecodeCompiler() {}
+
+	/**
+	 * The superclass of the generated classes. The generated code uses only
+	 * the public and protected members of this class and of the value
+	 * classes, because it is loaded in a different runtime package.
+	 */
+	public static abstract class Expression implements CompiledExpression {
+		protected final Interpreter interpreter;
+		protected final Object[] k;
+
+		protected Expression(Interpreter interpreter, Object[] k) {
+			this.interpreter = interpreter;
+			this.k = k;
+		}
+
+		protected final void enter(int i) {
+			if (interpreter.enableDebug) Interpreter.callStack.get().push(k[i]);
+		}
+
+		protected final void exit() {
+			if (interpreter.enableDebug) Interpreter.callStack.get().pop();
+		}
+
+		protected final RuntimeException fail(Throwable e) {
+			return interpreter.subexpressionFailed(e);
+		}
+
+		protected final RödaValue call(int i, RödaScope scope, RödaStream in, RödaStream out) {
+			return ((CompiledExpression) k[i]).eval(scope, in, out);
+		}
+
+		public static RödaValue variable(RödaValue value, String name) {
+			if (value == null) unknownName("variable not found: " + name);
+			return value;
+		}
+
+		public static boolean bool(RödaValue value, String operator) {
+			if (!value.is(BOOLEAN)) typeMismatch("tried to " + operator + " " + value.typeString());
+			return value.bool();
+		}
+
+		public static RödaValue concat(RödaValue val1, RödaValue val2) {
+			if (val1.is(LIST) && val2.is(LIST)) {
+				List<RödaValue> newList = new ArrayList<>();
+				newList.addAll(val1.list());
+				newList.addAll(val2.list());
+				return RödaList.of(newList);
+			}
+			else return RödaString.concat(val1, val2);
+		}
+
+		// kokonaislukujen yleisimmät laskutoimitukset ilman RödaIntegerin operaattorihakua
+
+		public static RödaValue add(RödaValue val1, RödaValue val2, CType ctype) {
+			if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+				return RödaInteger.of(val1.integer() + val2.integer());
+			return val1.callOperator(ctype, val2);
+		}
+
+		public static RödaValue sub(RödaValue val1, RödaValue val2, CType ctype) {
+			if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+				return RödaInteger.of(val1.integer() - val2.integer());
+			return val1.callOperator(ctype, val2);
+		}
+
+		public static RödaValue lt(RödaValue val1, RödaValue val2, CType ctype) {
+			if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+				return RödaBoolean.of(val1.integer() < val2.integer());
+			return val1.callOperator(ctype, val2);
+		}
+
+		public static RödaValue gt(RödaValue val1, RödaValue val2, CType ctype) {
+			if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+				return RödaBoolean.of(val1.integer() > val2.integer());
+			return val1.callOperator(ctype, val2);
+		}
+
+		public static RödaValue calculate(RödaValue val1, RödaValue val2, CType ctype) {
+			if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+				return ((RödaInteger) val1).callIntegerOperator(ctype, (RödaInteger) val2);
+			return val1.callOperator(ctype, val2);
+		}
+	}
+
+	/**
+	 * Returns true if the root of the given expression is compiled to bytecode.
+	 * Variables and literals are not compiled on their own, because their
+	 * closures are already as fast.
+	 */
+	static boolean isCompilable(ExpressionTree exp) {
+		if (exp.constant != null) return false;
+		switch (exp.type) {
+		case LIST:
+		case LENGTH:
+		case ELEMENT:
+		case SLICE:
+		case CONTAINS:
+		case FIELD:
+		case CONCAT:
+		case JOIN:
+		case IN:
+		case CALCULATOR:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Compiles the given expression.
+	 *
+	 * @param fallback the function that creates closures for the
+	 *                 subexpressions that are not compiled
+	 * @return the compiled expression, or null if the expression is too large
+	 *         to be compiled to one method
+	 */
+	static CompiledExpression compile(Interpreter interpreter, ExpressionTree exp,
+			Function<ExpressionTree, CompiledExpression> fallback) {
+		Generator generator = new Generator(fallback);
+		generator.node(exp);
+		generator.code.op(ARETURN, -1);
+		if (generator.code.length() > Short.MAX_VALUE) return null;
+		String name = "org/kaivos/röda/compiled/Expression" + counter.incrementAndGet();
+		byte[] bytes = generator.toClass(name);
+		try {
+			Class<?> cls = new Loader().define(name.replace('/', '.'), bytes);
+			return (CompiledExpression) cls.getConstructor(Interpreter.class, Object[].class)
+					.newInstance(interpreter, generator.constants.toArray());
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private static final class Loader extends ClassLoader {
+		Loader() {
+			super(BytecodeCompiler.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/*** Koodin tuottaminen ***/
+
+	private static final String EXPRESSION = "org/kaivos/röda/BytecodeCompiler$Expression",
+			VALUE = "org/kaivos/röda/RödaValue",
+			SCOPE = "org/kaivos/röda/Interpreter$RödaScope",
+			STREAM = "org/kaivos/röda/RödaStream",
+			CTYPE = "org/kaivos/röda/Parser$ExpressionTree$CType",
+			V = "L" + VALUE + ";",
+			EVAL = "(L" + SCOPE + ";L" + STREAM + ";L" + STREAM + ";)" + V,
+			CALCULATION = "(" + V + V + "L" + CTYPE + ";)" + V;
+
+	private static final class Generator {
+		final Function<ExpressionTree, CompiledExpression> fallback;
+		final ConstantPool pool = new ConstantPool();
+		final Code code = new Code();
+		final List<Object> constants = new ArrayList<>();
+
+		Generator(Function<ExpressionTree, CompiledExpression> fallback) {
+			this.fallback = fallback;
+		}
+
+		/* Vastaa tulkin compileExpressionia */
+		void node(ExpressionTree exp) {
+			if (exp.constant != null) {
+				constant(exp.constant, VALUE);
+				return;
+			}
+			switch (exp.type) {
+			case VARIABLE:
+				code.op(ALOAD_1, 1);
+				code.ldc(pool.string(exp.variable));
+				if (exp.slot >= 0) {
+					code.integer(exp.depth);
+					code.integer(exp.slot);
+					invoke(INVOKEVIRTUAL, SCOPE, "resolve", "(Ljava/lang/String;II)" + V, 3, true);
+				}
+				else {
+					invoke(INVOKEVIRTUAL, SCOPE, "resolve", "(Ljava/lang/String;)" + V, 1, true);
+				}
+				code.ldc(pool.string(exp.variable));
+				invoke(INVOKESTATIC, EXPRESSION, "variable", "(" + V + "Ljava/lang/String;)" + V, 2, true);
+				return;
+			case LIST:
+				code.op(NEW, 1);
+				code.u2(pool.cls("java/util/ArrayList"));
+				code.op(DUP, 1);
+				code.integer(exp.list.size());
+				invoke(INVOKESPECIAL, "java/util/ArrayList", "<init>", "(I)V", 2, false);
+				for (ExpressionTree e : exp.list) {
+					code.op(DUP, 1);
+					subexpression(e);
+					invoke(INVOKEVIRTUAL, "java/util/ArrayList", "add", "(Ljava/lang/Object;)Z", 2, true);
+					code.op(POP, -1);
+				}
+				invoke(INVOKESTATIC, "org/kaivos/röda/type/RödaList", "of",
+						"(Ljava/util/List;)Lorg/kaivos/röda/type/RödaList;", 1, true);
+				return;
+			case LENGTH:
+				subexpression(exp.sub);
+				invoke(INVOKEVIRTUAL, VALUE, "length", "()" + V, 1, true);
+				return;
+			case ELEMENT:
+				subexpression(exp.sub);
+				subexpression(exp.index);
+				invoke(INVOKEVIRTUAL, VALUE, "get", "(" + V + ")" + V, 2, true);
+				return;
+			case SLICE:
+				subexpression(exp.sub);
+				for (ExpressionTree e : new ExpressionTree[] { exp.index1, exp.index2, exp.step }) {
+					if (e == null) code.op(ACONST_NULL, 1);
+					else subexpression(e);
+				}
+				invoke(INVOKEVIRTUAL, VALUE, "slice", "(" + V + V + V + ")" + V, 4, true);
+				return;
+			case CONTAINS:
+				subexpression(exp.sub);
+				subexpression(exp.index);
+				invoke(INVOKEVIRTUAL, VALUE, "contains", "(" + V + ")" + V, 2, true);
+				return;
+			case FIELD:
+				subexpression(exp.sub);
+				code.ldc(pool.string(exp.field));
+				invoke(INVOKEVIRTUAL, VALUE, "getField", "(Ljava/lang/String;)" + V, 2, true);
+				return;
+			case CONCAT:
+				subexpression(exp.exprA);
+				subexpression(exp.exprB);
+				invoke(INVOKESTATIC, EXPRESSION, "concat", "(" + V + V + ")" + V, 2, true);
+				return;
+			case JOIN:
+				subexpression(exp.exprA);
+				subexpression(exp.exprB);
+				invoke(INVOKEVIRTUAL, VALUE, "join", "(" + V + ")" + V, 2, true);
+				return;
+			case IN:
+				subexpression(exp.exprA);
+				subexpression(exp.exprB);
+				code.op(SWAP, 0);
+				invoke(INVOKEVIRTUAL, VALUE, "containsValue", "(" + V + ")" + V, 2, true);
+				return;
+			case CALCULATOR:
+				calculator(exp);
+				return;
+			default:
+				// muut lausekkeet suoritetaan tulkin sulkeumilla
+				code.op(ALOAD_0, 1);
+				code.integer(constant(fallback.apply(exp)));
+				code.op(ALOAD_1, 1);
+				code.op(ALOAD_2, 1);
+				code.op(ALOAD_3, 1);
+				invoke(INVOKEVIRTUAL, EXPRESSION, "call", "(IL" + SCOPE + ";L" + STREAM + ";L" + STREAM + ";)" + V,
+						5, true);
+			}
+		}
+
+		private void calculator(ExpressionTree exp) {
+			if (exp.isUnary) {
+				subexpression(exp.sub);
+				constant(exp.ctype, CTYPE);
+				code.op(ACONST_NULL, 1);
+				invoke(INVOKEVIRTUAL, VALUE, "callOperator", "(L" + CTYPE + ";" + V + ")" + V, 3, true);
+				return;
+			}
+			switch (exp.ctype) {
+			case AND:
+			case OR: {
+				boolean and = exp.ctype == CType.AND;
+				subexpression(exp.exprA);
+				bool(exp.ctype);
+				int branch = code.jump(and ? IFEQ : IFNE, -1);
+				subexpression(exp.exprB);
+				bool(exp.ctype);
+				int skip = code.jump(GOTO, 0);
+				code.patch(branch);
+				code.stack--;
+				code.op(and ? ICONST_0 : ICONST_1, 1);
+				code.patch(skip);
+				break;
+			}
+			case XOR:
+				subexpression(exp.exprA);
+				bool(exp.ctype);
+				subexpression(exp.exprB);
+				bool(exp.ctype);
+				code.op(IXOR, -1);
+				break;
+			default: {
+				subexpression(exp.exprA);
+				subexpression(exp.exprB);
+				constant(exp.ctype, CTYPE);
+				String helper;
+				switch (exp.ctype) {
+				case ADD: helper = "add"; break;
+				case SUB: helper = "sub"; break;
+				case LT: helper = "lt"; break;
+				case GT: helper = "gt"; break;
+				default: helper = "calculate";
+				}
+				invoke(INVOKESTATIC, EXPRESSION, helper, CALCULATION, 3, true);
+				return;
+			}
+			}
+			invoke(INVOKESTATIC, "org/kaivos/röda/type/RödaBoolean", "of",
+					"(Z)Lorg/kaivos/röda/type/RödaBoolean;", 1, true);
+		}
+
+		private void bool(CType ctype) {
+			code.ldc(pool.string(ctype.name()));
+			invoke(INVOKESTATIC, EXPRESSION, "bool", "(" + V + "Ljava/lang/String;)Z", 2, true);
+		}
+
+		/* Vastaa tulkin compileResolvedSubexpressionia: alilauseke lisätään kutsupinoon ja
+		 * sen muut kuin Röda-poikkeukset muunnetaan */
+		private void subexpression(ExpressionTree exp) {
+			if (exp.constant != null) {
+				constant(exp.constant, VALUE);
+				return;
+			}
+			code.op(ALOAD_0, 1);
+			code.integer(constant(exp));
+			invoke(INVOKEVIRTUAL, EXPRESSION, "enter", "(I)V", 2, false);
+			int start = code.length(), stack = code.stack;
+			node(exp);
+			int end = code.length();
+			code.op(ALOAD_0, 1);
+			invoke(INVOKEVIRTUAL, EXPRESSION, "exit", "()V", 1, false);
+			int skip = code.jump(GOTO, 0);
+			// poikkeuskäsittelijän pinossa on vain poikkeus
+			int handler = code.length();
+			code.stack = 1;
+			code.op(ALOAD_0, 1);
+			code.op(SWAP, 0);
+			invoke(INVOKEVIRTUAL, EXPRESSION, "fail", "(Ljava/lang/Throwable;)Ljava/lang/RuntimeException;", 2, true);
+			code.op(ATHROW, -1);
+			code.handler(start, end, handler);
+			code.patch(skip);
+			code.stack = stack + 1;
+			invoke(INVOKEVIRTUAL, VALUE, "impliciteResolve", "()" + V, 1, true);
+		}
+
+		private int constant(Object value) {
+			constants.add(value);
+			return constants.size() - 1;
+		}
+
+		private void constant(Object value, String type) {
+			code.op(ALOAD_0, 1);
+			code.op(GETFIELD, 0);
+			code.u2(pool.field(EXPRESSION, "k", "[Ljava/lang/Object;"));
+			code.integer(constant(value));
+			code.op(AALOAD, -1);
+			code.op(CHECKCAST, 0);
+			code.u2(pool.cls(type));
+		}
+
+		private void invoke(int opcode, String owner, String name, String descriptor, int arguments, boolean returns) {
+			code.op(opcode, (returns ? 1 : 0) - arguments);
+			code.u2(pool.method(owner, name, descriptor));
+		}
+
+		byte[] toClass(String name) {
+			int thisClass = pool.cls(name), superClass = pool.cls(EXPRESSION);
+			Code init = new Code();
+			init.op(ALOAD_0, 1);
+			init.op(ALOAD_1, 1);
+			init.op(ALOAD_2, 1);
+			init.op(INVOKESPECIAL, -3);
+			init.u2(pool.method(EXPRESSION, "<init>", "(Lorg/kaivos/röda/Interpreter;[Ljava/lang/Object;)V"));
+			init.op(RETURN, 0);
+			int[] initMethod = { pool.utf8("<init>"), pool.utf8("(Lorg/kaivos/röda/Interpreter;[Ljava/lang/Object;)V") };
+			int[] evalMethod = { pool.utf8("eval"), pool.utf8(EVAL) };
+			int codeAttribute = pool.utf8("Code");
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeInt(0xCAFEBABE);
+				// versio 49 ei vaadi StackMapTable-attribuutteja
+				out.writeShort(0);
+				out.writeShort(49);
+				pool.write(out);
+				out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+				out.writeShort(thisClass);
+				out.writeShort(superClass);
+				out.writeShort(0); // rajapinnat
+				out.writeShort(0); // kentät
+				out.writeShort(2);
+				init.writeMethod(out, initMethod, codeAttribute, 3);
+				code.writeMethod(out, evalMethod, codeAttribute, 4);
+				out.writeShort(0); // attribuutit
+				return bytes.toByteArray();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/*** Luokkatiedoston rakenteet ***/
+
+	private static final int ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+	private static final int ACONST_NULL = 0x01, ICONST_M1 = 0x02, ICONST_0 = 0x03, ICONST_1 = 0x04,
+			BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13,
+			ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, ALOAD_3 = 0x2d, AALOAD = 0x32,
+			POP = 0x57, DUP = 0x59, SWAP = 0x5f, IXOR = 0x82, IFEQ = 0x99, IFNE = 0x9a, GOTO = 0xa7,
+			ARETURN = 0xb0, RETURN = 0xb1, GETFIELD = 0xb4, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7,
+			INVOKESTATIC = 0xb8, NEW = 0xbb, ATHROW = 0xbf, CHECKCAST = 0xc0;
+
+	private static final class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> indices = new HashMap<>();
+		private int count = 1;
+
+		private int entry(String key, int tag, int a, int b) {
+			Integer index = indices.get(key);
+			if (index != null) return index;
+			try {
+				out.writeByte(tag);
+				out.writeShort(a);
+				if (b >= 0) out.writeShort(b);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			indices.put(key, count);
+			return count++;
+		}
+
+		int utf8(String value) {
+			Integer index = indices.get("U" + value);
+			if (index != null) return index;
+			try {
+				out.writeByte(1);
+				out.writeUTF(value);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			indices.put("U" + value, count);
+			return count++;
+		}
+
+		int string(String value) {
+			return entry("S" + value, 8, utf8(value), -1);
+		}
+
+		int cls(String name) {
+			return entry("C" + name, 7, utf8(name), -1);
+		}
+
+		int field(String owner, String name, String descriptor) {
+			return entry("F" + owner + "." + name + descriptor, 9, cls(owner), nameAndType(name, descriptor));
+		}
+
+		int method(String owner, String name, String descriptor) {
+			return entry("M" + owner + "." + name + descriptor, 10, cls(owner), nameAndType(name, descriptor));
+		}
+
+		private int nameAndType(String name, String descriptor) {
+			return entry("N" + name + descriptor, 12, utf8(name), utf8(descriptor));
+		}
+
+		void write(DataOutputStream target) throws IOException {
+			target.writeShort(count);
+			bytes.writeTo(target);
+		}
+	}
+
+	private static final class Code {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final List<int[]> handlers = new ArrayList<>();
+		private final List<int[]> patches = new ArrayList<>();
+		int stack = 0, maxStack = 0;
+
+		int length() {
+			return bytes.size();
+		}
+
+		void op(int opcode, int delta) {
+			bytes.write(opcode);
+			stack += delta;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		void u2(int value) {
+			bytes.write(value >> 8);
+			bytes.write(value);
+		}
+
+		void integer(int value) {
+			if (value >= -1 && value <= 5) op(ICONST_0 + value, 1);
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				op(BIPUSH, 1);
+				bytes.write(value);
+			}
+			else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				op(SIPUSH, 1);
+				u2(value);
+			}
+			else throw new IllegalArgumentException("constant too large: " + value);
+		}
+
+		void ldc(int index) {
+			if (index < 256) {
+				op(LDC, 1);
+				bytes.write(index);
+			}
+			else {
+				op(LDC_W, 1);
+				u2(index);
+			}
+		}
+
+		/* Palauttaa hyppykäskyn sijainnin, jonka kohde asetetaan patch-metodilla */
+		int jump(int opcode, int delta) {
+			int at = length();
+			op(opcode, delta);
+			u2(0);
+			return at;
+		}
+
+		/* Asettaa hyppykäskyn kohteeksi nykyisen sijainnin */
+		void patch(int jump) {
+			patches.add(new int[] { jump, length() });
+		}
+
+		void handler(int start, int end, int handler) {
+			handlers.add(new int[] { start, end, handler });
+		}
+
+		void writeMethod(DataOutputStream out, int[] nameAndDescriptor, int codeAttribute, int maxLocals)
+				throws IOException {
+			byte[] code = bytes.toByteArray();
+			for (int[] patch : patches) {
+				int offset = patch[1] - patch[0];
+				code[patch[0] + 1] = (byte) (offset >> 8);
+				code[patch[0] + 2] = (byte) offset;
+			}
+			out.writeShort(ACC_PUBLIC);
+			out.writeShort(nameAndDescriptor[0]);
+			out.writeShort(nameAndDescriptor[1]);
+			out.writeShort(1);
+			out.writeShort(codeAttribute);
+			out.writeInt(2 + 2 + 4 + code.length + 2 + handlers.size() * 8 + 2);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(code.length);
+			out.write(code);
+			// sisempien alilausekkeiden käsittelijät ovat taulukossa ensin
+			out.writeShort(handlers.size());
+			for (int[] handler : handlers) {
+				out.writeShort(handler[0]);
+				out.writeShort(handler[1]);
+				out.writeShort(handler[2]);
+				out.writeShort(0); // kaikki poikkeukset
+			}
+			out.writeShort(0);
+		}
+	}
+}
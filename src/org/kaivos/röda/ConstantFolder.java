@@ -0,0 +1,159 @@
+package org.kaivos.röda;
+
+import java.util.List;
+
+import org.kaivos.röda.Parser.AnnotationTree;
+import org.kaivos.röda.Parser.ArgumentTree;
+import org.kaivos.röda.Parser.ArgumentsTree;
+import org.kaivos.röda.Parser.Command;
+import org.kaivos.röda.Parser.ExpressionTree;
+import org.kaivos.röda.Parser.FunctionTree;
+import org.kaivos.röda.Parser.KwArgumentTree;
+import org.kaivos.röda.Parser.ParameterTree;
+import org.kaivos.röda.Parser.ProgramTree;
+import org.kaivos.röda.Parser.RecordTree;
+import org.kaivos.röda.Parser.StatementTree;
+import org.kaivos.röda.type.RödaFloating;
+import org.kaivos.röda.type.RödaInteger;
+import org.kaivos.röda.type.RödaString;
+
+/**
+ * ConstantFolder folds the constant expressions of a program before it is
+ * executed with optimizations enabled.
+ *
+ * Expressions whose value is known at load time (literals and operators applied
+ * to literals) are evaluated once and the resulting value is stored in the tree,
+ * so that the interpreter does not have to rebuild it on every evaluation. An
+ * expression that fails to evaluate is left as is, so that the error is raised
+ * only if the expression is actually executed.
+ */
+final class ConstantFolder {
+
+	private ConstantFolder() {}
+
+	static void foldProgram(ProgramTree program) {
+		for (List<StatementTree> block : program.preBlocks)
+			foldBlock(block);
+		for (FunctionTree f : program.functions)
+			foldFunction(f);
+		for (RecordTree r : program.records)
+			foldRecord(r);
+		for (List<StatementTree> block : program.postBlocks)
+			foldBlock(block);
+	}
+
+	static void foldStatement(StatementTree statement) {
+		for (Command cmd : statement.commands)
+			foldCommand(cmd);
+	}
+
+	private static void foldRecord(RecordTree record) {
+		foldAnnotations(record.annotations);
+		for (RecordTree.SuperExpression superExp : record.superTypes)
+			for (ExpressionTree e : superExp.args)
+				foldExpression(e);
+		for (RecordTree.FieldTree field : record.fields) {
+			foldAnnotations(field.annotations);
+			foldExpression(field.defaultValue);
+		}
+	}
+
+	private static void foldAnnotations(List<AnnotationTree> annotations) {
+		for (AnnotationTree a : annotations)
+			foldArguments(a.args);
+	}
+
+	private static void foldFunction(FunctionTree function) {
+		for (ParameterTree p : function.kwparameters)
+			foldExpression(p.defaultValue);
+		foldBlock(function.body);
+	}
+
+	private static void foldBlock(List<StatementTree> block) {
+		if (block == null) return;
+		for (StatementTree s : block)
+			foldStatement(s);
+	}
+
+	private static void foldCommand(Command cmd) {
+		if (cmd == null) return;
+		foldExpression(cmd.name);
+		if (cmd.arguments != null) foldArguments(cmd.arguments);
+		if (cmd.cmds != null)
+			for (Command icmd : cmd.cmds)
+				foldCommand(icmd);
+		foldCommand(cmd.cmd);
+		if (cmd.cond != null) foldStatement(cmd.cond);
+		foldExpression(cmd.list);
+		foldBlock(cmd.body);
+		foldBlock(cmd.elseBody);
+	}
+
+	private static void foldArguments(ArgumentsTree args) {
+		for (ArgumentTree arg : args.arguments)
+			foldExpression(arg.expr);
+		for (KwArgumentTree arg : args.kwarguments)
+			foldExpression(arg.expr);
+	}
+
+	private static void foldExpression(ExpressionTree e) {
+		if (e == null) return;
+		switch (e.type) {
+		case STATEMENT_LIST:
+		case STATEMENT_SINGLE:
+			foldStatement(e.statement);
+			return;
+		case BLOCK:
+			foldFunction(e.block);
+			return;
+		default:
+			if (e.list != null)
+				for (ExpressionTree sub : e.list)
+					foldExpression(sub);
+			foldExpression(e.sub);
+			foldExpression(e.index);
+			foldExpression(e.index1);
+			foldExpression(e.index2);
+			foldExpression(e.step);
+			foldExpression(e.exprA);
+			foldExpression(e.exprB);
+		}
+		try {
+			e.constant = fold(e);
+		} catch (RuntimeException ex) {
+			// virhe heitetään vasta, jos lauseke suoritetaan
+			e.constant = null;
+		}
+	}
+
+	/* Palauttaa lausekkeen arvon tai null, jos arvoa ei tiedetä latausvaiheessa.
+	 * Vain muuttumattomat arvot voidaan jakaa eri suorituskertojen kesken. */
+	private static RödaValue fold(ExpressionTree e) {
+		switch (e.type) {
+		case STRING: return RödaString.of(e.string);
+		case PATTERN: return RödaString.of(e.pattern);
+		case INTEGER: return RödaInteger.of(e.integer);
+		case FLOATING: return RödaFloating.of(e.floating);
+		case CONCAT:
+			if (e.exprA.constant == null || e.exprB.constant == null) return null;
+			return RödaString.of(e.exprA.constant.str() + e.exprB.constant.str());
+		case CALCULATOR:
+			if (e.isUnary) {
+				if (e.sub.constant == null) return null;
+				return e.sub.constant.callOperator(e.ctype, null);
+			}
+			switch (e.ctype) {
+			case AND:
+			case OR:
+			case XOR:
+				// totuusarvot ovat muuttujia, joten niitä ei tunneta latausvaiheessa
+				return null;
+			default:
+				if (e.exprA.constant == null || e.exprB.constant == null) return null;
+				return e.exprA.constant.callOperator(e.ctype, e.exprB.constant);
+			}
+		default:
+			return null;
+		}
+	}
+}
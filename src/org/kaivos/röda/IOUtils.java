@@ -5,11 +5,12 @@ import java.util.Iterator;
 
 import java.io.File;
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
 
 public final class IOUtils {
 	private IOUtils() {}
@@ -24,9 +25,25 @@ public final class IOUtils {
 		}
 	}
 
+	/**
+	 * Reads a UTF-8 source file. Line separators are normalized to
+	 * <code>\n</code> and the last line is always terminated.
+	 */
+	public static String readSource(File file) throws IOException {
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			StringBuilder code = new StringBuilder((int) Math.min(file.length() + 1, Integer.MAX_VALUE - 8));
+			String line;
+			while ((line = in.readLine()) != null) {
+				code.append(line).append('\n');
+			}
+			return code.toString();
+		}
+	}
+
 	public static final ClosableIterable<String> fileIterator(File file) {
 		try {
-			BufferedReader in = new BufferedReader(new FileReader(file));
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
 			return lineIterator(in);
 		} catch (FileNotFoundException e) {
 			throw new RuntimeException(e);
@@ -35,7 +52,7 @@ public final class IOUtils {
 
 	public static final ClosableIterable<String> fileIterator(String file) {
 		try {
-			BufferedReader in = new BufferedReader(new FileReader(file));
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
 			return lineIterator(in);
 		} catch (FileNotFoundException e) {
 			throw new RuntimeException(e);
@@ -19,26 +19,21 @@ import static org.kaivos.röda.RödaValue.NUMBER;
 import static org.kaivos.röda.RödaValue.REFERENCE;
 import static org.kaivos.röda.RödaValue.STRING;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -61,6 +56,7 @@ import org.kaivos.röda.Parser.ProgramTree;
 import org.kaivos.röda.Parser.RecordTree;
 import org.kaivos.röda.Parser.StatementTree;
 import org.kaivos.röda.runtime.Datatype;
+import org.kaivos.röda.runtime.Frame;
 import org.kaivos.röda.runtime.Function;
 import org.kaivos.röda.runtime.Function.Parameter;
 import org.kaivos.röda.runtime.Record;
@@ -72,6 +68,8 @@ import org.kaivos.röda.type.RödaList;
 import org.kaivos.röda.type.RödaMap;
 import org.kaivos.röda.type.RödaNamespace;
 import org.kaivos.röda.type.RödaNativeFunction;
+import org.kaivos.röda.type.RödaNativeFunction.NativeFunction;
+import org.kaivos.röda.type.RödaNativeFunction.NativeStage;
 import org.kaivos.röda.type.RödaRecordInstance;
 import org.kaivos.röda.type.RödaReference;
 import org.kaivos.röda.type.RödaString;
@@ -82,46 +80,179 @@ public class Interpreter {
 
 	public static class RödaScope {
 		Optional<RödaScope> parent;
+		/* Kartat luodaan vasta, kun niihin lisätään jotain; useimmat funktioiden ja lohkojen
+		 * näkyvyysalueet tarvitsevat vain resolverin laskemat paikat */
 		Map<String, RödaValue> map;
-		Map<String, Datatype> typeargs;
-		Map<String, RecordDeclaration> records = new HashMap<>();
+		Map<String, Datatype> typeargs = Collections.emptyMap();
+		Map<String, RecordDeclaration> records = Collections.emptyMap();
+		private final Frame frame;
+		private final RödaValue[] slots;
+		/* caller_namespace luodaan vasta, kun sitä käytetään */
+		private RödaScope caller;
+		private int callerSlot = -1;
+		/* Näkyvyysalueeseen voi jäädä viittaus, joten silmukka ei saa käyttää sitä uudelleen */
+		private boolean captured = false;
+		/* Kertoo ilman lukitusta, onko karttaan lisätty muuttujia */
+		private volatile boolean dynamic = false;
+
+		/* Paikassa oleva muuttuja on poistettu undefinellä: tyhjä paikka tarkoittaisi, että
+		 * muuttujaa ei ole määritelty tässä näkyvyysalueessa, ja haku jatkuisi ulompaan */
+		private static final RödaValue UNDEFINED = RödaString.of("<undefined>");
 		public RödaScope(Optional<RödaScope> parent) {
-			this.parent = parent;
-			this.map = new HashMap<>();
-			this.typeargs = new HashMap<>();
+			this(parent, null);
 		}
 		public RödaScope(RödaScope parent) {
-			this(Optional.of(parent));
+			this(Optional.of(parent), null);
+		}
+		public RödaScope(RödaScope parent, Frame frame) {
+			this(Optional.of(parent), frame);
+		}
+		private RödaScope(Optional<RödaScope> parent, Frame frame) {
+			this.parent = parent;
+			this.map = frame == null ? new HashMap<>() : Collections.emptyMap();
+			this.frame = frame;
+			this.slots = frame == null ? null : new RödaValue[frame.size()];
+		}
+
+		private int slotOf(String name) {
+			return frame == null ? -1 : frame.indexOf(name);
+		}
+
+		private RödaValue slot(int slot) {
+			RödaValue value = slots[slot];
+			if (value == null && slot == callerSlot) {
+				value = slots[slot] = RödaNamespace.of(caller);
+			}
+			return value;
+		}
+
+		/**
+		 * Marks that this scope and its parents may be referred to after the
+		 * code using them has finished, e.g. by a namespace or a reference. A loop
+		 * creates a new scope for its next iteration instead of reusing a captured
+		 * one.
+		 */
+		public void markCaptured() {
+			for (RödaScope scope = this; scope != null && !scope.captured; scope = scope.parent.orElse(null))
+				scope.captured = true;
+		}
+
+		/* Tyhjentää silmukan näkyvyysalueen seuraavaa kierrosta varten */
+		private void clear() {
+			Arrays.fill(slots, null);
+			map = Collections.emptyMap();
+			dynamic = false;
+			typeargs = Collections.emptyMap();
+			records = Collections.emptyMap();
+		}
+
+		private void putDynamic(String name, RödaValue value) {
+			if (map.isEmpty()) map = new HashMap<>();
+			map.put(name, value);
+			dynamic = true;
+		}
+
+		private synchronized boolean hasDynamic(String name) {
+			return dynamic && map.containsKey(name);
+		}
+
+		private static RödaValue orUndefined(RödaValue value) {
+			return value == null ? UNDEFINED : value;
+		}
+
+		/**
+		 * Sets the value of the <code>caller_namespace</code> variable to the
+		 * namespace of the given scope. The namespace object is created only
+		 * when the variable is used.
+		 */
+		public void setCaller(RödaScope caller) {
+			int slot = slotOf("caller_namespace");
+			if (slot < 0) {
+				setLocal("caller_namespace", RödaNamespace.of(caller));
+				return;
+			}
+			this.caller = caller;
+			this.callerSlot = slot;
 		}
 
 		public synchronized RödaValue resolve(String name) {
+			int slot = slotOf(name);
+			RödaValue value = slot >= 0 ? slot(slot) : null;
+			if (value != null) return value == UNDEFINED ? null : value;
 			if (map.containsKey(name)) return map.get(name);
 			if (parent.isPresent()) return parent.get().resolve(name);
 			return null;
 		}
 
+		/**
+		 * Hakee muuttujan resolverin laskemasta paikasta. Jos paikka on tyhjä tai
+		 * jokin välissä olevista näkyvyysalueista sisältää dynaamisesti luodun
+		 * samannimisen muuttujan, muuttuja haetaan nimellä.
+		 */
+		public RödaValue resolve(String name, int depth, int slot) {
+			RödaScope scope = this;
+			for (int i = 0; i < depth; i++) {
+				if (scope.dynamic && scope.hasDynamic(name)) return resolve(name);
+				scope = scope.parent.get();
+			}
+			RödaValue value = scope.slot(slot);
+			if (value != null) return value == UNDEFINED ? null : value;
+			return resolve(name);
+		}
+
 		public synchronized void set(String name, RödaValue value) {
-			if (map.containsKey(name))
+			int slot = slotOf(name);
+			if (slot >= 0 && slot(slot) != null)
+				slots[slot] = orUndefined(value);
+			else if (map.containsKey(name))
 				map.put(name, value);
 			else if (parent.isPresent() && parent.get().resolve(name) != null)
 				parent.get().set(name, value);
+			else if (slot >= 0)
+				slots[slot] = orUndefined(value);
 			else {
-				map.put(name, value);
+				putDynamic(name, value);
 			}
 		}
 
+		/**
+		 * Asettaa muuttujan arvon resolverin laskemaan paikkaan. Kuten
+		 * {@link #resolve(String, int, int)}, palaa nimeen perustuvaan
+		 * asettamiseen, jos muuttujaa ei löydy paikastaan.
+		 */
+		public void set(String name, int depth, int slot, RödaValue value) {
+			RödaScope scope = this;
+			for (int i = 0; i < depth; i++) {
+				if (scope.dynamic && scope.hasDynamic(name)) {
+					set(name, value);
+					return;
+				}
+				scope = scope.parent.get();
+			}
+			if (scope.slot(slot) != null) scope.slots[slot] = orUndefined(value);
+			else set(name, value);
+		}
+
 		public synchronized void setLocal(String name, RödaValue value) {
-			map.put(name, value);
+			int slot = slotOf(name);
+			if (slot >= 0) slots[slot] = orUndefined(value);
+			else putDynamic(name, value);
 		}
 		
 		public Set<String> getLocalVariableNames() {
-			return Collections.unmodifiableSet(map.keySet());
+			if (frame == null) return Collections.unmodifiableSet(map.keySet());
+			Set<String> names = new HashSet<>(map.keySet());
+			for (int i = 0; i < slots.length; i++) {
+				if (slot(i) != null) names.add(frame.name(i));
+			}
+			return Collections.unmodifiableSet(names);
 		}
 
 		public void addTypearg(String name, Datatype value) {
 			if (getTypearg(name) != null) {
 				error("can't override typeargument '" + name + "'");
 			}
+			if (typeargs.isEmpty()) typeargs = new HashMap<>();
 			typeargs.put(name, value);
 		}
 
@@ -192,6 +323,7 @@ public class Interpreter {
 		}
 
 		public void preRegisterRecord(Record record) {
+			if (records.isEmpty()) records = new HashMap<>();
 			records.put(record.name, new RecordDeclaration(record, INTERPRETER.createRecordClassReflection(record, this)));
 		}
 
@@ -200,6 +332,7 @@ public class Interpreter {
 		}
 		
 		public void registerRecord(RecordDeclaration record) {
+			if (records.isEmpty()) records = new HashMap<>();
 			records.put(record.tree.name, record);
 		}
 	}
@@ -228,7 +361,7 @@ public class Interpreter {
 				funcTree.parameters.stream().map(p -> treeToParameter(p, scope)).collect(toList()),
 				funcTree.isVarargs,
 				funcTree.kwparameters.stream().map(p -> treeToParameter(p, scope)).collect(toList()),
-				funcTree.body);
+				funcTree.body, funcTree.frame);
 	}
 	
 	private static Parameter treeToParameter(ParameterTree parTree, RödaScope scope) {
@@ -440,10 +573,10 @@ public class Interpreter {
 						(list, list2) -> { list.addAll(list2.list()); });
 	}
 
-	public static ExecutorService executor = Executors.newCachedThreadPool();
+	public static Scheduler scheduler = Scheduler.makeDefault();
 
 	public static void shutdown() {
-		executor.shutdown();
+		scheduler.shutdown();
 	}
 
 	public static final Interpreter INTERPRETER = new Interpreter();
@@ -451,14 +584,94 @@ public class Interpreter {
 	private Interpreter() {}
 
 	/* kutsupino */
-	
-	public static ThreadLocal<ArrayDeque<String>> callStack = new InheritableThreadLocal<ArrayDeque<String>>() {
-		@Override protected ArrayDeque<String> childValue(ArrayDeque<String> parentValue) {
+
+	/**
+	 * The call stack of the current thread, used in error messages.
+	 *
+	 * The elements of the stack are the syntax tree nodes being executed
+	 * ({@link Command}s and {@link ExpressionTree}s), descriptions of function
+	 * calls or plain strings. They are converted to strings with
+	 * {@link #describeFrame(Object)} only when an error is raised.
+	 */
+	public static ThreadLocal<ArrayDeque<Object>> callStack = new InheritableThreadLocal<ArrayDeque<Object>>() {
+		// säikeillä, joita tulkki ei ole luonut (esim. upotettaessa), on aluksi tyhjä pino
+		@Override protected ArrayDeque<Object> initialValue() {
+			return new ArrayDeque<>();
+		}
+
+		@Override protected ArrayDeque<Object> childValue(ArrayDeque<Object> parentValue) {
 			return new ArrayDeque<>(parentValue);
 		}
 	};
 
-	static { callStack.set(new ArrayDeque<>()); }
+	/* Funktiokutsu kutsupinossa */
+	private static final class CallFrame {
+		final RödaValue function;
+		final List<RödaValue> args;
+		final String file;
+		final int line;
+
+		CallFrame(RödaValue function, List<RödaValue> args, String file, int line) {
+			this.function = function;
+			this.args = args;
+			this.file = file;
+			this.line = line;
+		}
+
+		@Override
+		public String toString() {
+			if (args.isEmpty())
+				return "calling " + function.str() + " with no arguments\n\tat " + file + ":" + line;
+			return "calling " + function.str()
+				+ " with argument" + (args.size() == 1 ? " " : "s ")
+				+ args.stream()
+					.map(RödaValue::str)
+					.collect(joining(", "))
+				+ "\n\tat " + file + ":" + line;
+		}
+	}
+
+	/* Muuttujakomento kutsupinossa */
+	private static final class VariableCommandFrame {
+		final Command cmd;
+		final List<RödaValue> args;
+
+		VariableCommandFrame(Command cmd, List<RödaValue> args) {
+			this.cmd = cmd;
+			this.args = args;
+		}
+
+		@Override
+		public String toString() {
+			return "variable command " + cmd.name.asString() + " " + cmd.operator + " "
+				+ args.stream()
+					.map(RödaValue::str)
+					.collect(joining(" "))
+				+ "\n\tat " + cmd.file + ":" + cmd.line;
+		}
+	}
+
+	/**
+	 * Returns the description of an element of the call stack.
+	 */
+	public static String describeFrame(Object frame) {
+		if (frame instanceof Command) {
+			Command command = (Command) frame;
+			return "command " + command.asString() + "\n\tat " + command.file + ":" + command.line;
+		}
+		if (frame instanceof ExpressionTree) {
+			ExpressionTree exp = (ExpressionTree) frame;
+			return "expression " + exp.asString() + "\n\tat " + exp.file + ":" + exp.line;
+		}
+		return frame.toString();
+	}
+
+	private static Deque<String> describeCallStack() {
+		Deque<String> stack = new ArrayDeque<>();
+		for (Object frame : callStack.get())
+			stack.add(describeFrame(frame));
+		return stack;
+	}
 	
 	/* profiloija */
 	
@@ -506,27 +719,34 @@ public class Interpreter {
 	
 	public boolean enableDebug = true, enableProfiling = false;
 
+	/**
+	 * An error raised by a Röda program or by the interpreter.
+	 *
+	 * Röda errors are often used for control flow, so the Java stack trace of the
+	 * exception is captured only if debugging is enabled. The Röda call stack is
+	 * always available through {@link #getStack()}.
+	 */
 	@SuppressWarnings("serial")
 	public static class RödaException extends RuntimeException {
 		private Throwable[] causes;
 		private Deque<String> stack;
 		private RödaValue errorObject;
 		private RödaException(String message, Deque<String> stack, RödaValue errorObject) {
-			super(message);
+			super(message, null, false, INTERPRETER.enableDebug);
 			this.causes = new Throwable[0];
 			this.stack = stack;
 			this.errorObject = errorObject;
 		}
 
 		private RödaException(Throwable cause, Deque<String> stack, RödaValue errorObject) {
-			super(cause);
+			super(cause == null ? null : cause.toString(), cause, false, INTERPRETER.enableDebug);
 			this.stack = stack;
 			this.errorObject = errorObject;
 		}
 
 		private RödaException(Throwable[] causes, Deque<String> stack, RödaValue errorObject) {
 			super(causes.length == 1 ? causes[0].getClass().getName() + ": " + causes[0].getMessage()
-					: "multiple threads crashed", causes[0]);
+					: "multiple threads crashed", causes[0], false, INTERPRETER.enableDebug);
 			this.causes = causes;
 			this.stack = stack;
 			this.errorObject = errorObject;
@@ -545,11 +765,12 @@ public class Interpreter {
 		}
 	}
 
-	private static RödaValue makeErrorObject(Record record, String message,
+	/* Kutsupinon kuvaus muodostetaan kerran ja jaetaan virheolion ja RödaExceptionin kesken */
+	private static RödaValue makeErrorObject(Record record, String message, Deque<String> stack,
 			StackTraceElement[] javaStackTrace, Throwable... causes) {
 		RödaValue errorObject = RödaRecordInstance.of(record, emptyList());
 		errorObject.setField("message", RödaString.of(message));
-		errorObject.setField("stack", RödaList.of("string", callStack.get().stream()
+		errorObject.setField("stack", RödaList.of("string", stack.stream()
 				.map(RödaString::of).collect(toList())));
 		errorObject.setField("javastack", RödaList.of("string", Arrays.stream(javaStackTrace)
 				.map(StackTraceElement::toString).map(RödaString::of)
@@ -557,14 +778,23 @@ public class Interpreter {
 		errorObject.setField("causes", RödaList.of(new Datatype("Error", INTERPRETER.G), Arrays.stream(causes)
 				.map(cause -> cause instanceof RödaException ? ((RödaException) cause).getErrorObject()
 						: makeErrorObject(INTERPRETER.javaErrorRecord,
-								cause.getClass().getName() + ": " + cause.getMessage(), cause.getStackTrace()))
+								cause.getClass().getName() + ": " + cause.getMessage(), stack,
+								cause.getStackTrace()))
 				.collect(toList())));
 		return errorObject;
 	}
 
+	private static final StackTraceElement[] NO_STACK_TRACE = new StackTraceElement[0];
+
+	/* Javan pinoa ei kävellä läpi, jos virheenjäljitys ei ole päällä */
+	private static StackTraceElement[] currentJavaStackTrace() {
+		return INTERPRETER.enableDebug ? Thread.currentThread().getStackTrace() : NO_STACK_TRACE;
+	}
+
 	private static RödaException createRödaException(Record record, String message) {
-		RödaValue errorObject = makeErrorObject(record, message, Thread.currentThread().getStackTrace());
-		return new RödaException(message, new ArrayDeque<>(callStack.get()), errorObject);
+		Deque<String> stack = describeCallStack();
+		RödaValue errorObject = makeErrorObject(record, message, stack, currentJavaStackTrace());
+		return new RödaException(message, stack, errorObject);
 	}
 	
 	public static void error(String message) {
@@ -608,11 +838,12 @@ public class Interpreter {
 		
 		StackTraceElement[] javaStackTrace;
 		if (causes.length == 1) javaStackTrace = causes[0].getStackTrace();
-		else javaStackTrace = Thread.currentThread().getStackTrace();
+		else javaStackTrace = currentJavaStackTrace();
 		
+		Deque<String> stack = describeCallStack();
 		RödaValue errorObject = makeErrorObject(causes.length == 1 ? INTERPRETER.javaErrorRecord : INTERPRETER.errorRecord,
-				message, javaStackTrace, causes);
-		return new RödaException(causes, new ArrayDeque<>(callStack.get()), errorObject);
+				message, stack, javaStackTrace, causes);
+		return new RödaException(causes, stack, errorObject);
 	}
 
 	public static void error(Throwable... causes) {
@@ -620,14 +851,14 @@ public class Interpreter {
 	}
 
 	public static void error(RödaValue errorObject) {
-		RödaException e = new RödaException(errorObject.getField("message").str(), new ArrayDeque<>(callStack.get()), errorObject);
+		RödaException e = new RödaException(errorObject.getField("message").str(), describeCallStack(), errorObject);
 		throw e;
 	}
 
 	@SuppressWarnings("unused")
 	private static void printStackTrace() {
-		for (String step : callStack.get()) {
-			System.err.println(step);
+		for (Object frame : callStack.get()) {
+			System.err.println(describeFrame(frame));
 		}
 	}
 
@@ -642,13 +873,22 @@ public class Interpreter {
 	public void interpret(String code, List<RödaValue> args, String filename, RödaStream in, RödaStream out) {
 		try {
 			load(code, filename, G);
+			execMain(args, in, out);
+		} catch (ParsingException|RödaException e) {
+			throw e;
+		} catch (Exception e) {
+			error(e);
+		}
+	}
 
-			RödaValue main = G.resolve("main");
-			if (main == null) return;
-			if (!main.is(FUNCTION) || main.is(NFUNCTION))
-				typeMismatch("The variable 'main' must be a function");
-
-			exec("<runtime>", 0, main, emptyList(), args, Collections.emptyMap(), G, in, out);
+	/**
+	 * Loads the given file to the global scope and executes its main function.
+	 * The file name is used in error messages.
+	 */
+	public void interpretFile(File file, List<RödaValue> args, String filename, RödaStream in, RödaStream out) {
+		try {
+			loadFile(file, filename, G, true);
+			execMain(args, in, out);
 		} catch (ParsingException|RödaException e) {
 			throw e;
 		} catch (Exception e) {
@@ -656,10 +896,48 @@ public class Interpreter {
 		}
 	}
 
+	private void execMain(List<RödaValue> args, RödaStream in, RödaStream out) {
+		RödaValue main = G.resolve("main");
+		if (main == null) return;
+		if (!main.is(FUNCTION) || main.is(NFUNCTION))
+			typeMismatch("The variable 'main' must be a function");
+
+		exec("<runtime>", 0, main, emptyList(), args, Collections.emptyMap(), G, in, out);
+	}
+
+	/**
+	 * If true, constant expressions are folded when a program is loaded and
+	 * other expressions are converted to closures on their first evaluation.
+	 */
+	public boolean enableOptimization = false;
+
+	/**
+	 * If true, and optimizations are enabled, expressions that have been
+	 * evaluated {@link #compileThreshold} times are compiled to JVM bytecode.
+	 *
+	 * @see BytecodeCompiler
+	 */
+	public boolean enableCompilation = false;
+
+	public int compileThreshold = 1000;
+
+	/**
+	 * The cache of parsed source files, or null if files are always parsed.
+	 */
+	public AstCache astCache = null;
+
 	public void load(String code, String filename, RödaScope scope, boolean overwrite) {
+		if (enableProfiling) pushTimer();
+		loadProgram(() -> parse(t.tokenize(code, filename)), scope);
+	}
+
+	/* Jäsentää ohjelman annetulla funktiolla ja lataa sen; kutsujan on käynnistettävä
+	 * jäsentimen ajastin */
+	private void loadProgram(ProgramSource source, RödaScope scope) {
 		try {
-			if (enableProfiling) pushTimer();
-			ProgramTree program = parse(t.tokenize(code, filename));
+			ProgramTree program = source.get();
+			Resolver.resolveProgram(program);
+			if (enableOptimization) ConstantFolder.foldProgram(program);
 			if (enableProfiling) popTimer("<parser>");
 			for (List<StatementTree> f : program.preBlocks) {
 				execBlock("pre_load", f, scope);
@@ -704,19 +982,27 @@ public class Interpreter {
 	}
 
 	public void loadFile(File file, RödaScope scope, boolean overwrite) {
-		try {
-			BufferedReader in = new BufferedReader(
-					new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
-			String code = "";
-			String line = "";
-			while ((line = in.readLine()) != null) {
-				code += line + "\n";
-			}
-			in.close();
-			load(code, file.getName(), scope, overwrite);
-		} catch (IOException e) {
-			error(e);
+		loadFile(file, file.getName(), scope, overwrite);
+	}
+
+	public void loadFile(File file, String filename, RödaScope scope, boolean overwrite) {
+		if (astCache == null) {
+			String code;
+			try {
+				code = IOUtils.readSource(file);
+			} catch (IOException e) {
+				error(e);
+				return;
+			}
+			load(code, filename, scope, overwrite);
+			return;
 		}
+		if (enableProfiling) pushTimer();
+		loadProgram(() -> astCache.load(file, filename), scope);
+	}
+
+	private interface ProgramSource {
+		ProgramTree get() throws IOException;
 	}
 	
 	public void loadFile(File file, RödaScope scope) {
@@ -728,6 +1014,8 @@ public class Interpreter {
 			TokenList tl = t.tokenize(code, filename);
 			StatementTree statement = parseStatement(tl);
 			tl.accept("<EOF>");
+			Resolver.resolveStatement(statement);
+			if (enableOptimization) ConstantFolder.foldStatement(statement);
 			evalStatement(statement, G, in, out, false);
 		} catch (RödaException e) {
 			throw e;
@@ -899,24 +1187,32 @@ public class Interpreter {
 		return val;
 	}
 
-	public void exec(String file, int line,
-			RödaValue value, List<Datatype> typeargs,
-			List<RödaValue> rawArgs, Map<String, RödaValue> rawKwArgs,
-			RödaScope scope, RödaStream in, RödaStream out) {
-		List<RödaValue> args = new ArrayList<>();
-		Map<String, RödaValue> kwargs = new HashMap<>();
+	private List<RödaValue> resolveArguments(RödaValue value, List<RödaValue> rawArgs, RödaScope scope) {
+		List<RödaValue> args = new ArrayList<>(rawArgs.size());
+		boolean isFunction = value.is(FUNCTION);
 		int i = 0;
 		for (RödaValue val : rawArgs) {
-			val = resolveArgument(val, value.is(FUNCTION) && isReferenceParameter(value, i));
+			val = resolveArgument(val, isFunction && isReferenceParameter(value, i));
+			// viittausparametri voi jäädä talteen kutsutun funktion muuttujaan
+			if (val.is(REFERENCE)) scope.markCaptured();
 			args.add(val);
 			i++;
 		}
+		return args;
+	}
 
-		for (Parameter kwpar : getKwParameters(value)) {
+	private Map<String, RödaValue> resolveKwArguments(RödaValue value, Map<String, RödaValue> rawKwArgs) {
+		List<Parameter> kwparameters = getKwParameters(value);
+		boolean isKwVarargs = value.is(NFUNCTION) && value.nfunction().isKwVarargs;
+		// useimmilla funktioilla ei ole nimettyjä parametreja
+		Map<String, RödaValue> kwargs = kwparameters.isEmpty() && !isKwVarargs
+				? Collections.emptyMap() : new HashMap<>();
+		for (Parameter kwpar : kwparameters) {
 			if (!rawKwArgs.containsKey(kwpar.name)) {
-				RödaValue defaultVal = evalExpression(kwpar.defaultValue, G,
-						RödaStream.makeEmptyStream(),
-						RödaStream.makeStream()).impliciteResolve();
+				RödaValue defaultVal = kwpar.defaultValue.constant != null ? kwpar.defaultValue.constant
+						: evalExpression(kwpar.defaultValue, G,
+								RödaStream.makeEmptyStream(),
+								RödaStream.makeStream()).impliciteResolve();
 				kwargs.put(kwpar.name, defaultVal);
 				continue;
 			}
@@ -925,31 +1221,28 @@ public class Interpreter {
 			kwargs.put(kwpar.name, val);
 		}
 		
-		if (value.is(NFUNCTION) && value.nfunction().isKwVarargs) {
+		if (isKwVarargs) {
 			for (Entry<String, RödaValue> arg : rawKwArgs.entrySet()) {
 				if (!kwargs.containsKey(arg.getKey())) {
 					kwargs.put(arg.getKey(), resolveArgument(arg.getValue(), false));
 				}
 			}
 		}
+		return kwargs;
+	}
+
+	public void exec(String file, int line,
+			RödaValue value, List<Datatype> typeargs,
+			List<RödaValue> rawArgs, Map<String, RödaValue> rawKwArgs,
+			RödaScope scope, RödaStream in, RödaStream out) {
+		List<RödaValue> args = resolveArguments(value, rawArgs, scope);
+		Map<String, RödaValue> kwargs = resolveKwArguments(value, rawKwArgs);
 
 		if (enableProfiling) {
 			pushTimer();
 		}
 		if (enableDebug) {
-			if (args.size() > 0) {
-				callStack.get().push("calling " + value.str()
-					+ " with argument" + (args.size() == 1 ? " " : "s ")
-					+ args.stream()
-						.map(RödaValue::str)
-						.collect(joining(", "))
-					+ "\n\tat " + file + ":" + line);
-			}
-			else {
-				callStack.get().push("calling " + value.str()
-					+ " with no arguments\n"
-					+ "\tat " + file + ":" + line);
-			}
+			callStack.get().push(new CallFrame(value, args, file, line));
 		}
 		try {
 			execWithoutErrorHandling(value, typeargs, args, kwargs, scope, in, out);
@@ -993,9 +1286,10 @@ public class Interpreter {
 
 			// joko nimettömän funktion paikallinen scope tai ylätason scope
 			RödaScope newScope = value.localScope() == null
-					? new RödaScope(G) : new RödaScope(value.localScope());
+					? new RödaScope(G, value.function().frame)
+					: new RödaScope(value.localScope(), value.function().frame);
 			
-			newScope.setLocal("caller_namespace", RödaNamespace.of(scope));
+			newScope.setCaller(scope);
 			
 			if (typeparams.size() != typeargs.size())
 				illegalArguments("illegal number of typearguments for '" + name + "': "
@@ -1071,45 +1365,213 @@ public class Interpreter {
 		}
 	}
 
+	/* Putken komento, joka suoritetaan edellisen komennon säikeessä: edellisen komennon
+	 * työntämät arvot annetaan suoraan funktion työntöversiolle */
+	private final class StageStream extends RödaStream {
+		private Command command;
+		private CallFrame frame;
+		private NativeStage stage;
+		private RödaStream out;
+		private boolean finishOut, done = false, ended = false;
+		private RödaException failure = null;
+
+		@Override
+		public RödaValue get() {
+			return null;
+		}
+
+		@Override
+		public void put(RödaValue value) {
+			if (done) return;
+			// seuraavan vaiheen lopetettua arvoja ei tarvitse enää käsitellä
+			if (stage.done() || out instanceof StageStream && ((StageStream) out).done) {
+				done = true;
+				return;
+			}
+			ArrayDeque<Object> frames = enterStage();
+			try {
+				stage.push(value, out);
+			}
+			catch (RuntimeException e) {
+				// epäonnistunut komento ei lue enempää eikä tuota loppuarvojaan
+				done = true;
+				failure = e instanceof RödaException ? (RödaException) e : createRödaException(e);
+				throw failure;
+			}
+			finally {
+				leaveStage(frames);
+			}
+		}
+
+		private ArrayDeque<Object> enterStage() {
+			if (!enableDebug) return null;
+			ArrayDeque<Object> frames = callStack.get();
+			frames.push(command);
+			frames.push(frame);
+			return frames;
+		}
+
+		private void leaveStage(ArrayDeque<Object> frames) {
+			if (frames == null) return;
+			frames.pop();
+			frames.pop();
+		}
+
+		@Override
+		public boolean finished() {
+			return true;
+		}
+
+		@Override
+		public void finish() {
+			if (ended) return;
+			ended = true;
+			done = true;
+			ArrayDeque<Object> frames = enterStage();
+			try {
+				if (failure == null) stage.end(out);
+			}
+			catch (RödaException e) { throw e; }
+			catch (RuntimeException e) { error(e); }
+			finally {
+				leaveStage(frames);
+				if (finishOut) out.finish();
+			}
+			// edellinen komento on voinut ottaa virheen kiinni, mutta putki epäonnistuu silti
+			if (failure != null) throw failure;
+		}
+	}
+
+	/* Palauttaa komennon sisäänrakennetun funktion tai null, jos komento on jotain muuta */
+	private RödaValue nativeFunction(Command command, RödaScope scope) {
+		if (command.type != Command.Type.NORMAL || command.name.type != ExpressionTree.Type.VARIABLE)
+			return null;
+		RödaValue function = resolveVariable(command.name, scope);
+		if (function == null || !function.is(NFUNCTION)) return null;
+		return function;
+	}
+
+	private void initStage(StageStream stream, Command command, RödaValue function, RödaScope scope,
+			RödaStream in, RödaStream out) {
+		NativeFunction f = function.nfunction();
+		List<Datatype> typeargs = command.typearguments.stream()
+				.map(scope::substitute).collect(toList());
+		List<RödaValue> args = resolveArguments(function,
+				flattenArguments(command.arguments.arguments, scope, in, out, false), scope);
+		Map<String, RödaValue> rawKwArgs = kwargsToMap(command.arguments.kwarguments, scope, in, out, false);
+		stream.command = command;
+		stream.frame = new CallFrame(function, args, command.file, command.line);
+		if (enableDebug) callStack.get().push(stream.frame);
+		try {
+			Map<String, RödaValue> kwargs = resolveKwArguments(function, rawKwArgs);
+			checkArgs(f.name, f.isVarargs, f.parameters, f.kwparameters, args, kwargs, scope);
+			NativeStage stage = f.stage.make(typeargs, args, kwargs, scope);
+			// funktio ei lue syötettään, joten se suoritetaan vasta syötteen loputtua
+			if (stage == null) stage = new NativeStage() {
+				@Override
+				public void push(RödaValue value, RödaStream out) {
+				}
+
+				@Override
+				public void end(RödaStream out) {
+					f.body.exec(typeargs, args, kwargs, scope, RödaStream.makeEmptyStream(), out);
+				}
+			};
+			stream.stage = stage;
+		}
+		catch (RödaException e) { throw e; }
+		catch (RuntimeException e) { error(e); }
+		finally {
+			if (enableDebug) callStack.get().pop();
+		}
+	}
+
 	private void evalStatementCC(StatementTree statement, RödaScope scope,
 			RödaStream in, RödaStream out, boolean redirected) {
+		// yksittäinen komento suoritetaan suoraan ilman putkien ja säikeiden hallintaa
+		if (statement.commands.size() == 1 && !enableProfiling) {
+			Command command = statement.commands.get(0);
+			Runnable tr = evalCommand(command, scope, in, out, in, out);
+			if (enableDebug) callStack.get().push(command);
+			try {
+				tr.run();
+			} finally {
+				if (enableDebug) callStack.get().pop();
+				if (redirected) out.finish();
+			}
+			return;
+		}
+
+		/* Sisäänrakennetun funktion jälkeiset komennot, joilla on työntöversio, suoritetaan
+		 * edellisen komennon säikeessä ilman välissä olevaa putkea. Käyttäjän funktion jälkeen
+		 * käytetään aina putkea, jotta funktion try-lohko ei ota kiinni seuraavan komennon virheitä.
+		 * Profiloitaessa jokainen komento suoritetaan erikseen. */
+		int count = statement.commands.size();
+		RödaValue[] stageFunctions = new RödaValue[count];
+		if (!enableProfiling) {
+			RödaValue previous = nativeFunction(statement.commands.get(0), scope);
+			for (int j = 1; j < count; j++) {
+				RödaValue function = nativeFunction(statement.commands.get(j), scope);
+				if (previous != null && function != null && function.nfunction().stage != null)
+					stageFunctions[j] = function;
+				previous = function;
+			}
+		}
+
 		RödaStream _in = in;
-		int i = 0;
-		Runnable[] runnables = new Runnable[statement.commands.size()];
-		Timer[] timers = new Timer[statement.commands.size()];
-		for (Command command : statement.commands) {
-			boolean last = i == statement.commands.size()-1;
-			RödaStream _out = last ? out : RödaStream.makeStream();
+		List<Runnable> runnables = new ArrayList<>(count);
+		Timer[] timers = new Timer[count];
+		for (int i = 0; i < count; i++) {
+			Command command = statement.commands.get(i);
+			boolean last = i == count-1;
+			RödaStream _out = last ? out : stageFunctions[i+1] != null ? new StageStream() : RödaStream.makePipe();
+			if (stageFunctions[i] != null) {
+				StageStream stage = (StageStream) _in;
+				initStage(stage, command, stageFunctions[i], scope, in, out);
+				stage.out = _out;
+				stage.finishOut = !last || redirected;
+				_in = _out;
+				continue;
+			}
+			RödaStream pipeIn = i == 0 ? null : _in;
 			Runnable tr = evalCommand(command, scope,
 					in, out,
 					_in, _out);
 			Timer timer = timers[i] = enableProfiling ? new Timer() : null;
-			runnables[i] = () -> {
+			runnables.add(() -> {
+				boolean completed = false;
 				try {
 					if (enableProfiling) {
 						timerStack.get().push(timer);
 						timer.start();
 					}
-					if (enableDebug)
-						callStack.get().push("command " + command.asString()
-							+ "\n\tat " + command.file + ":" + command.line);
+					if (enableDebug) callStack.get().push(command);
 					tr.run();
+					completed = true;
 				} finally {
 					if (enableDebug) {
-						if (runnables.length > 1) callStack.get().clear();
+						if (runnables.size() > 1) callStack.get().clear();
 						else callStack.get().pop();
 					}
 					if (enableProfiling) {
 						timer.stop();
 						timerStack.get().pop();
 					}
+					// edellinen komento ei saa jäädä odottamaan, jos tämä komento ei lue koko syötettään
+					if (pipeIn != null)
+						pipeIn.abandon();
 					// sulje virta jos se on putki tai muulla tavalla uudelleenohjaus
-					if (!last || redirected)
-						_out.finish();
+					if (!last || redirected) {
+						try {
+							_out.finish();
+						} catch (RödaException e) {
+							// samassa säikeessä suoritettujen komentojen virhe ei peitä tämän komennon virhettä
+							if (completed) throw e;
+						}
+					}
 				}
-			};
+			});
 			_in = _out;
-			i++;
 		}
 
 		if (enableProfiling) {
@@ -1119,19 +1581,19 @@ public class Interpreter {
 			}
 		}
 		try {
-			if (runnables.length == 1) runnables[0].run();
+			if (runnables.size() == 1) runnables.get(0).run();
 			else {
-				Future<?>[] futures = new Future<?>[runnables.length];
-				i = 0;
+				Future<?>[] futures = new Future<?>[runnables.size()];
+				int i = 0;
 				for (Runnable r : runnables) {
-					futures[i++] = executor.submit(r);
+					futures[i++] = scheduler.submit(r);
 				}
 				List<ExecutionException> exceptions = new ArrayList<>();
 				try {
 					i = futures.length;
 					while (i --> 0) {
 						try {
-							futures[i].get();
+							Scheduler.await(futures[i]);
 						} catch (ExecutionException e) {
 							exceptions.add(e);
 						}
@@ -1294,15 +1756,15 @@ public class Interpreter {
 			Consumer<RödaValue> assign, assignLocal;
 			if (e.type == ExpressionTree.Type.VARIABLE) {
 				assign = v -> {
-					RödaValue value = scope.resolve(e.variable);
+					RödaValue value = resolveVariable(e, scope);
 					if (value == null || !value.is(REFERENCE))
-						value = RödaReference.of(e.variable, scope, e.file, e.line);
+						value = RödaReference.of(e.variable, scope, e.depth, e.slot, e.file, e.line);
 					value.assign(v);
 				};
 				assignLocal = v -> {
-					RödaValue value = scope.resolve(e.variable);
+					RödaValue value = resolveVariable(e, scope);
 					if (value == null || !value.is(REFERENCE))
-						value = RödaReference.of(e.variable, scope, e.file, e.line);
+						value = RödaReference.of(e.variable, scope, e.depth, e.slot, e.file, e.line);
 					value.assignLocal(v);
 				};
 			}
@@ -1352,6 +1814,10 @@ public class Interpreter {
 			case "++": {
 				r = () -> {
 					RödaValue v = resolve.get();
+					if (v instanceof RödaInteger && args.isEmpty()) {
+						assign.accept(RödaInteger.of(v.integer()+1));
+						return;
+					}
 					checkNumber("++", v);
 					checkArgs("++", 0, args.size());
 					if (v.is(INTEGER))
@@ -1363,6 +1829,10 @@ public class Interpreter {
 			case "--": {
 				r = () -> {
 					RödaValue v = resolve.get();
+					if (v instanceof RödaInteger && args.isEmpty()) {
+						assign.accept(RödaInteger.of(v.integer()-1));
+						return;
+					}
 					checkNumber("--", v);
 					checkArgs("--", 0, args.size());
 					if (v.is(INTEGER))
@@ -1444,7 +1914,7 @@ public class Interpreter {
 					}
 					else {
 						checkArgs(".=", 1, args.size());
-						assign.accept(RödaString.of(v.str()+args.get(0).str()));
+						assign.accept(RödaString.concat(v, args.get(0)));
 					}
 				};
 			} break;
@@ -1478,7 +1948,7 @@ public class Interpreter {
 					checkArgs("?", 0, args.size());
 					if (e.type != ExpressionTree.Type.VARIABLE)
 						error("bad lvalue for '?': " + e.asString());
-					_out.push(RödaBoolean.of(scope.resolve(e.variable) != null));
+					_out.push(RödaBoolean.of(resolveVariable(e, scope) != null));
 				};
 			} break;
 			default:
@@ -1487,11 +1957,7 @@ public class Interpreter {
 			}
 			Runnable finalR = () -> {
 				if (enableDebug) {
-					callStack.get().push("variable command " + e.asString() + " " + cmd.operator + " "
-						+ args.stream()
-							.map(RödaValue::str)
-							.collect(joining(" "))
-						+ "\n\tat " + cmd.file + ":" + cmd.line);
+					callStack.get().push(new VariableCommandFrame(cmd, args));
 				}
 				try {
 					r.run();
@@ -1512,9 +1978,10 @@ public class Interpreter {
 			String commandName = isWhile?(neg?"until":"while"):(neg?"unless":"if");
 			Runnable r = () -> {
 				boolean goToElse = true;
+				RödaScope newScope = null;
 				do {
-					RödaScope newScope = new RödaScope(scope);
-					if (evalCond(commandName, cmd.cond, scope, _in) ^ neg) break;
+					newScope = loopScope(cmd, scope, newScope);
+					if (evalCond(commandName, cmd, scope, _in, _out) ^ neg) break;
 					goToElse = false;
 					try {
 						for (StatementTree s : cmd.body) {
@@ -1526,9 +1993,9 @@ public class Interpreter {
 					}
 				} while (isWhile);
 				if (goToElse && cmd.elseBody != null) {
-					RödaScope newScope = new RödaScope(scope);
+					RödaScope elseScope = new RödaScope(scope, cmd.elseFrame);
 					for (StatementTree s : cmd.elseBody) {
-						evalStatement(s, newScope, _in, _out, false);
+						evalStatement(s, elseScope, _in, _out, false);
 					}
 				}
 			};
@@ -1542,10 +2009,11 @@ public class Interpreter {
 				RödaValue list = evalExpression(cmd.list, scope, in, out).impliciteResolve();
 				checkList("for", list);
 				r = () -> {
+					RödaScope newScope = null;
 					for (RödaValue val : list.list()) {
-						RödaScope newScope = new RödaScope(scope);
+						newScope = loopScope(cmd, scope, newScope);
 						newScope.setLocal(cmd.variables.get(0), val);
-						if (cmd.cond != null && evalCond("for if", cmd.cond, newScope, _in))
+						if (cmd.cond != null && evalCond("for if", cmd, newScope, _in, _out))
 							continue;
 						try {
 							for (StatementTree s : cmd.body) {
@@ -1560,11 +2028,12 @@ public class Interpreter {
 				r = () -> {
 					String firstVar = cmd.variables.get(0);
 					List<String> otherVars = cmd.variables.subList(1, cmd.variables.size());
+					RödaScope newScope = null;
 					while (true) {
 						RödaValue val = _in.pull();
 						if (val == null) break;
 
-						RödaScope newScope = new RödaScope(scope);
+						newScope = loopScope(cmd, scope, newScope);
 						newScope.setLocal(firstVar, val);
 						for (String var : otherVars) {
 							val = _in.pull();
@@ -1580,7 +2049,7 @@ public class Interpreter {
 						}
 
 						if (cmd.cond != null
-								&& evalCond("for if", cmd.cond, newScope, _in))
+								&& evalCond("for if", cmd, newScope, _in, _out))
 							continue;
 						try {
 							for (StatementTree s : cmd.body) {
@@ -1598,7 +2067,7 @@ public class Interpreter {
 		case TRY_DO: {
 			Runnable r = () -> {
 				try {
-					RödaScope newScope = new RödaScope(scope);
+					RödaScope newScope = new RödaScope(scope, cmd.bodyFrame);
 					for (StatementTree s : cmd.body) {
 						evalStatement(s, newScope, _in, _out, false);
 					}
@@ -1608,12 +2077,12 @@ public class Interpreter {
 					throw e;
 				} catch (Exception e) {
 					if (cmd.variable != null) {
-						RödaScope newScope = new RödaScope(scope);
+						RödaScope newScope = new RödaScope(scope, cmd.elseFrame);
 						RödaValue errorObject;
 						if (e instanceof RödaException)
 							errorObject = ((RödaException) e).getErrorObject();
 						else errorObject = makeErrorObject(javaErrorRecord, e.getClass().getName() + ": "
-								+ e.getMessage(),
+								+ e.getMessage(), describeCallStack(),
 								e.getStackTrace());
 						newScope.setLocal(cmd.variable, errorObject);
 						for (StatementTree s : cmd.elseBody) {
@@ -1644,7 +2113,7 @@ public class Interpreter {
 				illegalArguments("all arguments of return must be non-kw");
 			List<RödaValue> args = flattenArguments(cmd.arguments.arguments, scope, in, out, true);
 			Runnable r = () -> {
-				for (RödaValue arg : args) out.push(arg);
+				out.pushAll(args);
 				throw RETURN_EXCEPTION;
 			};
 			return r;
@@ -1670,9 +2139,33 @@ public class Interpreter {
 		}
 	}
 
-	private boolean evalCond(String cmd, StatementTree cond, RödaScope scope, RödaStream in) {
+	/* Silmukan kierroksen näkyvyysalue. Edellisen kierroksen näkyvyysalue tyhjennetään ja käytetään
+	 * uudelleen, jos runko ei luo sulkeumia eikä näkyvyysalueeseen ole muuten jäänyt viittausta. */
+	private static RödaScope loopScope(Command cmd, RödaScope scope, RödaScope previous) {
+		if (previous != null && cmd.reuseScope && !previous.captured) {
+			previous.clear();
+			return previous;
+		}
+		return new RödaScope(scope, cmd.bodyFrame);
+	}
+
+	private boolean evalCond(String cmd, Command command, RödaScope scope, RödaStream in, RödaStream out) {
+		if (command.condExpressions != null) {
+			// lasketaan lausekkeet suoraan, virheet tarkistetaan samassa järjestyksessä kuin virrasta luettaessa
+			RödaValue invalid = null;
+			boolean brk = false;
+			for (ExpressionTree e : command.condExpressions) {
+				RödaValue val = evalExpression(e, scope, in, out).impliciteResolve();
+				if (!val.is(BOOLEAN)) {
+					if (invalid == null) invalid = val;
+				}
+				else brk = brk || !val.bool();
+			}
+			if (invalid != null) checkBoolean(cmd, invalid);
+			return brk;
+		}
 		RödaStream condOut = RödaStream.makeStream();
-		evalStatement(cond, scope, in, condOut, true);
+		evalStatement(command.cond, scope, in, condOut, true);
 		boolean brk = false;
 		while (true) {
 			RödaValue val = condOut.pull();
@@ -1683,13 +2176,18 @@ public class Interpreter {
 		return brk;
 	}
 
+	private static RödaValue resolveVariable(ExpressionTree exp, RödaScope scope) {
+		if (exp.slot >= 0) return scope.resolve(exp.variable, exp.depth, exp.slot);
+		return scope.resolve(exp.variable);
+	}
+
 	private RödaValue evalExpression(ExpressionTree exp, RödaScope scope, RödaStream in, RödaStream out) {
 		return evalExpressionWithoutErrorHandling(exp, scope, in, out, false);
 	}
 
 	private RödaValue evalExpression(ExpressionTree exp, RödaScope scope, RödaStream in, RödaStream out,
 			boolean variablesAreReferences) {
-		if (enableDebug) callStack.get().push("expression " + exp.asString() + "\n\tat " + exp.file + ":" + exp.line);
+		if (enableDebug) callStack.get().push(exp);
 		RödaValue value;
 		try {
 			value = evalExpressionWithoutErrorHandling(exp, scope, in, out,
@@ -1704,10 +2202,28 @@ public class Interpreter {
 		return value;
 	}
 
-	@SuppressWarnings("incomplete-switch")
 	private RödaValue evalExpressionWithoutErrorHandling(ExpressionTree exp, RödaScope scope,
 			RödaStream in, RödaStream out,
 			boolean variablesAreReferences) {
+		if (exp.constant != null) return exp.constant;
+		// viittaukset luodaan aina tulkkaamalla
+		if (enableOptimization && !(variablesAreReferences && exp.type == ExpressionTree.Type.VARIABLE)) {
+			CompiledExpression compiled = exp.compiled;
+			if (compiled == null) {
+				compiled = compileExpression(exp);
+				if (enableCompilation && BytecodeCompiler.isCompilable(exp))
+					compiled = new HotExpression(exp, compiled);
+				exp.compiled = compiled;
+			}
+			return compiled.eval(scope, in, out);
+		}
+		return interpretExpression(exp, scope, in, out, variablesAreReferences);
+	}
+
+	@SuppressWarnings("incomplete-switch")
+	private RödaValue interpretExpression(ExpressionTree exp, RödaScope scope,
+			RödaStream in, RödaStream out,
+			boolean variablesAreReferences) {
 		switch (exp.type) {
 		case STRING: return RödaString.of(exp.string);
 		case PATTERN: return RödaString.of(exp.pattern);
@@ -1788,7 +2304,7 @@ public class Interpreter {
 				newList.addAll(val2.list());
 				return RödaList.of(newList);
 			}
-			else return RödaString.of(val1.str() + val2.str());
+			else return RödaString.concat(val1, val2);
 		}
 		case CONCAT_CHILDREN: {
 			RödaValue val1 = evalExpression(exp.exprA, scope, in, out).impliciteResolve();
@@ -1830,9 +2346,9 @@ public class Interpreter {
 		}
 		case VARIABLE: {
 			if (variablesAreReferences) {
-				return RödaReference.of(exp.variable, scope, exp.file, exp.line);
+				return RödaReference.of(exp.variable, scope, exp.depth, exp.slot, exp.file, exp.line);
 			}
-			RödaValue v = scope.resolve(exp.variable);
+			RödaValue v = resolveVariable(exp, scope);
 			if (v == null) unknownName("variable not found: " + exp.variable);
 			return v;
 		}
@@ -1866,6 +2382,8 @@ public class Interpreter {
 					return RödaBoolean.of(val1.bool() ^ val2.bool());
 				}
 				val2 = getVal2.get();
+				if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+					return ((RödaInteger) val1).callIntegerOperator(exp.ctype, (RödaInteger) val2);
 				return val1.callOperator(exp.ctype, val2);
 			}
 		}
@@ -1875,6 +2393,273 @@ public class Interpreter {
 		}
 	}
 	
+	/*** Käännetyt lausekkeet ***/
+
+	/**
+	 * An expression converted to a tree of closures. The closures of the
+	 * subexpressions are created once when the expression is compiled, so
+	 * evaluating a compiled expression does not dispatch on the type of the
+	 * expression node.
+	 */
+	@FunctionalInterface
+	interface CompiledExpression {
+		RödaValue eval(RödaScope scope, RödaStream in, RödaStream out);
+	}
+
+	/**
+	 * An expression that is evaluated with its closures until it has been
+	 * evaluated {@link #compileThreshold} times, and then compiled to bytecode.
+	 */
+	private final class HotExpression implements CompiledExpression {
+		private final ExpressionTree exp;
+		private CompiledExpression target;
+		private int calls = 0;
+
+		HotExpression(ExpressionTree exp, CompiledExpression closure) {
+			this.exp = exp;
+			this.target = closure;
+		}
+
+		@Override
+		public RödaValue eval(RödaScope scope, RödaStream in, RödaStream out) {
+			// laskuri ei ole synkronoitu, joten lauseke voidaan kääntää kahdesti tai ei lainkaan
+			if (calls < compileThreshold && ++calls == compileThreshold) {
+				CompiledExpression compiled = BytecodeCompiler.compile(Interpreter.this, exp,
+						Interpreter.this::compileExpression);
+				if (compiled != null) exp.compiled = target = compiled;
+			}
+			return target.eval(scope, in, out);
+		}
+	}
+
+	/* Käännetyn lausekkeen alilausekkeen poikkeus käsitellään samoin kuin compileSubexpressionissa;
+	 * palauttaa heitettävän poikkeuksen */
+	RuntimeException subexpressionFailed(Throwable e) {
+		try {
+			if (e instanceof RödaException) return (RödaException) e;
+			if (e instanceof ReturnException) return (ReturnException) e;
+			error(e);
+			return null;
+		}
+		catch (RödaException error) { return error; }
+		finally {
+			if (enableDebug) callStack.get().pop();
+		}
+	}
+
+	/* Alilausekkeet käsitellään samoin kuin evalExpression käsittelee ne */
+	private CompiledExpression compileSubexpression(ExpressionTree exp) {
+		if (exp.constant != null) {
+			RödaValue constant = exp.constant;
+			return (scope, in, out) -> constant;
+		}
+		CompiledExpression compiled = exp.compiled;
+		if (compiled == null) exp.compiled = compiled = compileExpression(exp);
+		CompiledExpression c = compiled;
+		return (scope, in, out) -> {
+			if (enableDebug) callStack.get().push(exp);
+			try {
+				return c.eval(scope, in, out);
+			}
+			catch (RödaException e) { throw e; }
+			catch (ReturnException e) { throw e; }
+			catch (Throwable e) { error(e); return null; }
+			finally {
+				if (enableDebug) callStack.get().pop();
+			}
+		};
+	}
+
+	private CompiledExpression compileResolvedSubexpression(ExpressionTree exp) {
+		CompiledExpression c = compileSubexpression(exp);
+		if (exp.constant != null) return c;
+		return (scope, in, out) -> c.eval(scope, in, out).impliciteResolve();
+	}
+
+	private CompiledExpression compileExpression(ExpressionTree exp) {
+		if (exp.constant != null) {
+			RödaValue constant = exp.constant;
+			return (scope, in, out) -> constant;
+		}
+		switch (exp.type) {
+		case STRING:
+		case PATTERN:
+		case INTEGER:
+		case FLOATING: {
+			RödaValue constant = interpretExpression(exp, null, null, null, false);
+			return (scope, in, out) -> constant;
+		}
+		case VARIABLE: {
+			String name = exp.variable;
+			if (exp.slot >= 0) {
+				int depth = exp.depth, slot = exp.slot;
+				return (scope, in, out) -> {
+					RödaValue v = scope.resolve(name, depth, slot);
+					if (v == null) unknownName("variable not found: " + name);
+					return v;
+				};
+			}
+			return (scope, in, out) -> {
+				RödaValue v = scope.resolve(name);
+				if (v == null) unknownName("variable not found: " + name);
+				return v;
+			};
+		}
+		case LIST: {
+			List<CompiledExpression> elements = exp.list.stream()
+					.map(this::compileResolvedSubexpression).collect(toList());
+			return (scope, in, out) -> {
+				List<RödaValue> list = new ArrayList<>(elements.size());
+				for (CompiledExpression e : elements) list.add(e.eval(scope, in, out));
+				return RödaList.of(list);
+			};
+		}
+		case LENGTH: {
+			CompiledExpression list = compileResolvedSubexpression(exp.sub);
+			return (scope, in, out) -> list.eval(scope, in, out).length();
+		}
+		case ELEMENT: {
+			CompiledExpression list = compileResolvedSubexpression(exp.sub);
+			CompiledExpression index = compileResolvedSubexpression(exp.index);
+			return (scope, in, out) -> {
+				RödaValue l = list.eval(scope, in, out);
+				return l.get(index.eval(scope, in, out));
+			};
+		}
+		case CONTAINS: {
+			CompiledExpression list = compileResolvedSubexpression(exp.sub);
+			CompiledExpression index = compileResolvedSubexpression(exp.index);
+			return (scope, in, out) -> {
+				RödaValue l = list.eval(scope, in, out);
+				return l.contains(index.eval(scope, in, out));
+			};
+		}
+		case FIELD: {
+			CompiledExpression sub = compileResolvedSubexpression(exp.sub);
+			String field = exp.field;
+			return (scope, in, out) -> sub.eval(scope, in, out).getField(field);
+		}
+		case CONCAT: {
+			CompiledExpression a = compileResolvedSubexpression(exp.exprA);
+			CompiledExpression b = compileResolvedSubexpression(exp.exprB);
+			return (scope, in, out) -> {
+				RödaValue val1 = a.eval(scope, in, out);
+				RödaValue val2 = b.eval(scope, in, out);
+				if (val1.is(LIST) && val2.is(LIST)) {
+					List<RödaValue> newList = new ArrayList<>();
+					newList.addAll(val1.list());
+					newList.addAll(val2.list());
+					return RödaList.of(newList);
+				}
+				else return RödaString.concat(val1, val2);
+			};
+		}
+		case CONCAT_CHILDREN: {
+			CompiledExpression a = compileResolvedSubexpression(exp.exprA);
+			CompiledExpression b = compileResolvedSubexpression(exp.exprB);
+			return (scope, in, out) -> {
+				RödaValue val1 = a.eval(scope, in, out);
+				return concat(val1, b.eval(scope, in, out));
+			};
+		}
+		case JOIN: {
+			CompiledExpression a = compileResolvedSubexpression(exp.exprA);
+			CompiledExpression b = compileResolvedSubexpression(exp.exprB);
+			return (scope, in, out) -> {
+				RödaValue list = a.eval(scope, in, out);
+				return list.join(b.eval(scope, in, out));
+			};
+		}
+		case IN: {
+			CompiledExpression a = compileResolvedSubexpression(exp.exprA);
+			CompiledExpression b = compileResolvedSubexpression(exp.exprB);
+			return (scope, in, out) -> {
+				RödaValue value = a.eval(scope, in, out);
+				return b.eval(scope, in, out).containsValue(value);
+			};
+		}
+		case CALCULATOR:
+			return compileCalculator(exp);
+		default:
+			// muut lausekkeet tulkataan
+			return (scope, in, out) -> interpretExpression(exp, scope, in, out, false);
+		}
+	}
+
+	private CompiledExpression compileCalculator(ExpressionTree exp) {
+		CType ctype = exp.ctype;
+		if (exp.isUnary) {
+			CompiledExpression sub = compileResolvedSubexpression(exp.sub);
+			return (scope, in, out) -> sub.eval(scope, in, out).callOperator(ctype, null);
+		}
+		CompiledExpression a = compileResolvedSubexpression(exp.exprA);
+		CompiledExpression b = compileResolvedSubexpression(exp.exprB);
+		switch (ctype) {
+		case AND:
+			return (scope, in, out) -> {
+				RödaValue val1 = a.eval(scope, in, out);
+				if (!val1.is(BOOLEAN)) typeMismatch("tried to AND " + val1.typeString());
+				if (val1.bool() == false) return RödaBoolean.of(false);
+				RödaValue val2 = b.eval(scope, in, out);
+				if (!val2.is(BOOLEAN)) typeMismatch("tried to AND " + val2.typeString());
+				return RödaBoolean.of(val2.bool());
+			};
+		case OR:
+			return (scope, in, out) -> {
+				RödaValue val1 = a.eval(scope, in, out);
+				if (!val1.is(BOOLEAN)) typeMismatch("tried to OR " + val1.typeString());
+				if (val1.bool() == true) return RödaBoolean.of(true);
+				RödaValue val2 = b.eval(scope, in, out);
+				if (!val2.is(BOOLEAN)) typeMismatch("tried to OR " + val2.typeString());
+				return RödaBoolean.of(val2.bool());
+			};
+		case XOR:
+			return (scope, in, out) -> {
+				RödaValue val1 = a.eval(scope, in, out);
+				if (!val1.is(BOOLEAN)) typeMismatch("tried to XOR " + val1.typeString());
+				RödaValue val2 = b.eval(scope, in, out);
+				if (!val2.is(BOOLEAN)) typeMismatch("tried to XOR " + val2.typeString());
+				return RödaBoolean.of(val1.bool() ^ val2.bool());
+			};
+		// kokonaislukujen yleisimmät laskutoimitukset ilman RödaIntegerin operaattorihakua
+		case ADD:
+			return (scope, in, out) -> {
+				RödaValue val1 = a.eval(scope, in, out), val2 = b.eval(scope, in, out);
+				if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+					return RödaInteger.of(val1.integer() + val2.integer());
+				return val1.callOperator(ctype, val2);
+			};
+		case SUB:
+			return (scope, in, out) -> {
+				RödaValue val1 = a.eval(scope, in, out), val2 = b.eval(scope, in, out);
+				if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+					return RödaInteger.of(val1.integer() - val2.integer());
+				return val1.callOperator(ctype, val2);
+			};
+		case LT:
+			return (scope, in, out) -> {
+				RödaValue val1 = a.eval(scope, in, out), val2 = b.eval(scope, in, out);
+				if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+					return RödaBoolean.of(val1.integer() < val2.integer());
+				return val1.callOperator(ctype, val2);
+			};
+		case GT:
+			return (scope, in, out) -> {
+				RödaValue val1 = a.eval(scope, in, out), val2 = b.eval(scope, in, out);
+				if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+					return RödaBoolean.of(val1.integer() > val2.integer());
+				return val1.callOperator(ctype, val2);
+			};
+		default:
+			return (scope, in, out) -> {
+				RödaValue val1 = a.eval(scope, in, out), val2 = b.eval(scope, in, out);
+				if (val1 instanceof RödaInteger && val2 instanceof RödaInteger)
+					return ((RödaInteger) val1).callIntegerOperator(ctype, (RödaInteger) val2);
+				return val1.callOperator(ctype, val2);
+			};
+		}
+	}
+
 	private RödaValue newRecord(Datatype type, List<Datatype> subtypes, List<RödaValue> args, RödaScope scope) {
 		//if (enableProfiling) pushTimer();
 		switch (type.name) {
@@ -1976,6 +2761,6 @@ public class Interpreter {
 			}
 			return RödaList.of(newList);
 		}
-		return RödaString.of(val1.str()+val2.str());
+		return RödaString.concat(val1, val2);
 	}
 }
@@ -37,8 +37,9 @@ public class JSON {
 		.appendOnEOF("<EOF>");
 
 	public static String escape(String string) {
-		string = string.replaceAll("\\\\" , "\\\\\\\\").replaceAll("\"" , "\\\\\"");
-		return "\"" + string + "\"";
+		StringBuilder buffer = new StringBuilder(string.length() + 2);
+		JSONWriter.escape(buffer, string);
+		return buffer.toString();
 	}
 
 
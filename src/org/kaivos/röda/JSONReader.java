@@ -0,0 +1,373 @@
+package org.kaivos.röda;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JSONReader reads JSON incrementally from a {@link Reader}.
+ *
+ * The reader returns one event at a time: the start and the end of each list
+ * and map and each string, number and constant. Only the keys and indices of
+ * the lists and maps that are currently open are kept in memory, so the memory
+ * used does not depend on the size of the document, only on its nesting depth.
+ *
+ * The input may contain several documents separated by whitespace. If the
+ * reader is line-delimited (NDJSON), each document must be on its own line.
+ */
+public final class JSONReader {
+
+	public static enum Event {
+		START_LIST, END_LIST, START_MAP, END_MAP, STRING, INTEGER, DOUBLE, TRUE, FALSE, NULL
+	}
+
+	public static class JSONException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private JSONException(String message) {
+			super(message);
+		}
+	}
+
+	private final Reader reader;
+	private final boolean lineDelimited;
+	private final char[] buffer = new char[8192];
+	private int pos = 0, limit = 0;
+	private int line = 1;
+
+	/* Avoinna olevat listat ja kartat */
+	private boolean[] maps = new boolean[16];
+	private int[] counts = new int[16];
+	private String[] keys = new String[16];
+	private int depth = 0;
+
+	/* Nykyisen tapahtuman polun pituus */
+	private int pathDepth = 0;
+	private long document = -1, documents = 0;
+
+	private final StringBuilder text = new StringBuilder();
+	private String string;
+	private long integer;
+	private double floating;
+
+	public JSONReader(Reader reader) {
+		this(reader, false);
+	}
+
+	public JSONReader(Reader reader, boolean lineDelimited) {
+		this.reader = reader;
+		this.lineDelimited = lineDelimited;
+	}
+
+	/**
+	 * Returns true if there is another event, that is, if a document is open or
+	 * there is another document in the input.
+	 */
+	public boolean hasNext() {
+		if (depth > 0) return true;
+		int c = nextNonWhitespace();
+		if (c == -1) return false;
+		unread();
+		return true;
+	}
+
+	/**
+	 * Reads the next event.
+	 *
+	 * @throws JSONException if the input is not valid JSON
+	 */
+	public Event next() {
+		int c = nextNonWhitespace();
+		if (depth == 0) {
+			if (c == -1) throw error("unexpected end of input");
+			document = documents;
+			return value(c);
+		}
+		int top = depth-1;
+		int close = maps[top] ? '}' : ']';
+		if (c == close) return close();
+		if (counts[top] > 0) {
+			if (c != ',') throw expected("',' or '" + (char) close + "'", c);
+			c = nextNonWhitespace();
+		}
+		if (maps[top]) {
+			if (c != '"') throw expected("key", c);
+			keys[top] = readString();
+			c = nextNonWhitespace();
+			if (c != ':') throw expected("':'", c);
+			c = nextNonWhitespace();
+		}
+		counts[top]++;
+		return value(c);
+	}
+
+	/**
+	 * Returns the number of lists and maps that are open.
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the index of the current document, starting from zero.
+	 */
+	public long document() {
+		return document;
+	}
+
+	/**
+	 * Returns the path of the current event: the keys (as strings) and indices
+	 * (as longs) leading from the root of the document to the value.
+	 */
+	public List<Object> path() {
+		List<Object> path = new ArrayList<>(pathDepth);
+		for (int i = 0; i < pathDepth; i++) path.add(keyAt(i));
+		return path;
+	}
+
+	/**
+	 * Returns the last element of the path of the current event, or null if the
+	 * value is the root of the document.
+	 */
+	public Object key() {
+		return pathDepth == 0 ? null : keyAt(pathDepth-1);
+	}
+
+	private Object keyAt(int i) {
+		return maps[i] ? keys[i] : (Object) (long) (counts[i]-1);
+	}
+
+	public String string() {
+		return string;
+	}
+
+	public long integer() {
+		return integer;
+	}
+
+	public double floating() {
+		return floating;
+	}
+
+	/*** Tapahtumat ***/
+
+	private Event value(int c) {
+		switch (c) {
+		case '[':
+			push(false);
+			return Event.START_LIST;
+		case '{':
+			push(true);
+			return Event.START_MAP;
+		case '"':
+			string = readString();
+			return scalar(Event.STRING);
+		case 't':
+			readLiteral("true");
+			return scalar(Event.TRUE);
+		case 'f':
+			readLiteral("false");
+			return scalar(Event.FALSE);
+		case 'n':
+			readLiteral("null");
+			return scalar(Event.NULL);
+		default:
+			if (c == '-' || isDigit(c)) return scalar(readNumber(c));
+			throw expected("value", c);
+		}
+	}
+
+	private Event scalar(Event event) {
+		pathDepth = depth;
+		if (depth == 0) endDocument();
+		return event;
+	}
+
+	private void push(boolean map) {
+		pathDepth = depth;
+		if (depth == maps.length) {
+			maps = Arrays.copyOf(maps, depth*2);
+			counts = Arrays.copyOf(counts, depth*2);
+			keys = Arrays.copyOf(keys, depth*2);
+		}
+		maps[depth] = map;
+		counts[depth] = 0;
+		depth++;
+	}
+
+	private Event close() {
+		depth--;
+		keys[depth] = null;
+		pathDepth = depth;
+		boolean map = maps[depth];
+		if (depth == 0) endDocument();
+		return map ? Event.END_MAP : Event.END_LIST;
+	}
+
+	private void endDocument() {
+		documents++;
+		if (!lineDelimited) return;
+		// NDJSON: dokumentin jälkeen saa olla vain tyhjää rivin loppuun asti
+		int c;
+		do c = read(); while (c == ' ' || c == '\t' || c == '\r');
+		if (c != '\n' && c != -1) throw expected("end of line", c);
+	}
+
+	/*** Arvot ***/
+
+	private String readString() {
+		text.setLength(0);
+		int start = pos;
+		while (true) {
+			if (pos == limit) {
+				text.append(buffer, start, pos-start);
+				if (!fill()) throw error("unexpected end of input in a string");
+				start = pos;
+			}
+			char c = buffer[pos];
+			if (c == '"') {
+				text.append(buffer, start, pos-start);
+				pos++;
+				return text.toString();
+			}
+			if (c == '\\') {
+				text.append(buffer, start, pos-start);
+				pos++;
+				readEscape();
+				start = pos;
+				continue;
+			}
+			if (c < 0x20) throw expected("'\"'", c);
+			pos++;
+		}
+	}
+
+	private void readEscape() {
+		int c = read();
+		switch (c) {
+		case '"': case '\\': case '/': text.append((char) c); break;
+		case 'b': text.append('\b'); break;
+		case 'f': text.append('\f'); break;
+		case 'n': text.append('\n'); break;
+		case 'r': text.append('\r'); break;
+		case 't': text.append('\t'); break;
+		case 'u':
+			int code = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(read(), 16);
+				if (digit < 0) throw error("illegal unicode escape");
+				code = code*16 + digit;
+			}
+			text.append((char) code);
+			break;
+		default:
+			throw expected("escape sequence", c);
+		}
+	}
+
+	private Event readNumber(int c) {
+		text.setLength(0);
+		boolean integral = true;
+		if (c == '-') {
+			text.append('-');
+			c = read();
+		}
+		if (c == '0') {
+			text.append('0');
+			c = read();
+		}
+		else c = readDigits(c);
+		if (c == '.') {
+			integral = false;
+			text.append('.');
+			c = readDigits(read());
+		}
+		if (c == 'e' || c == 'E') {
+			integral = false;
+			text.append('e');
+			c = read();
+			if (c == '+' || c == '-') {
+				text.append((char) c);
+				c = read();
+			}
+			c = readDigits(c);
+		}
+		if (c != -1) unread();
+		String number = text.toString();
+		if (integral) {
+			try {
+				integer = Long.parseLong(number);
+				return Event.INTEGER;
+			} catch (NumberFormatException e) {
+				// liian suuri kokonaisluku luetaan liukulukuna
+			}
+		}
+		floating = Double.parseDouble(number);
+		return Event.DOUBLE;
+	}
+
+	private int readDigits(int c) {
+		if (!isDigit(c)) throw expected("digit", c);
+		do {
+			text.append((char) c);
+			c = read();
+		} while (isDigit(c));
+		return c;
+	}
+
+	private void readLiteral(String literal) {
+		for (int i = 1; i < literal.length(); i++) {
+			int c = read();
+			if (c != literal.charAt(i)) throw expected("'" + literal + "'", c);
+		}
+	}
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/*** Merkit ***/
+
+	private boolean fill() {
+		try {
+			int n;
+			do n = reader.read(buffer, 0, buffer.length); while (n == 0);
+			if (n < 0) return false;
+			pos = 0;
+			limit = n;
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private int read() {
+		if (pos == limit && !fill()) return -1;
+		char c = buffer[pos++];
+		if (c == '\n') line++;
+		return c;
+	}
+
+	/* Palauttaa edellisen merkin, kutsutaan vain onnistuneen read()-kutsun jälkeen */
+	private void unread() {
+		if (buffer[--pos] == '\n') line--;
+	}
+
+	private int nextNonWhitespace() {
+		int c;
+		do c = read(); while (c == ' ' || c == '\n' || c == '\t' || c == '\r');
+		return c;
+	}
+
+	private JSONException expected(String expected, int c) {
+		return error("expected " + expected + ", got "
+				+ (c == -1 ? "end of input" : c == '\n' ? "end of line" : "'" + (char) c + "'"));
+	}
+
+	private JSONException error(String message) {
+		return new JSONException("line " + line + ": " + message);
+	}
+}
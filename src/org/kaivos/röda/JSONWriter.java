@@ -0,0 +1,176 @@
+package org.kaivos.röda;
+
+import static org.kaivos.röda.Interpreter.illegalArguments;
+import static org.kaivos.röda.Interpreter.typeMismatch;
+import static org.kaivos.röda.RödaValue.BOOLEAN;
+import static org.kaivos.röda.RödaValue.FLOATING;
+import static org.kaivos.röda.RödaValue.INTEGER;
+import static org.kaivos.röda.RödaValue.LIST;
+import static org.kaivos.röda.RödaValue.MAP;
+import static org.kaivos.röda.RödaValue.STRING;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.kaivos.röda.type.RödaList;
+import org.kaivos.röda.type.RödaRecordInstance;
+
+/**
+ * JSONWriter converts values to JSON.
+ *
+ * Lists become arrays, maps and record instances become objects and strings,
+ * numbers and booleans become the corresponding JSON values. The keys of
+ * objects are written in sorted order.
+ *
+ * The text is written to a buffer that is reused for the whole conversion.
+ * When the buffer holds {@link #CHUNK_SIZE} characters, its contents are given
+ * to the consumer and the buffer is emptied, so a large value is never kept in
+ * memory as one string.
+ */
+public final class JSONWriter {
+
+	public static final int CHUNK_SIZE = 8192;
+
+	private static final String INDENT = "  ";
+
+	private final Consumer<String> consumer;
+	private final boolean pretty;
+	private final StringBuilder buffer = new StringBuilder(CHUNK_SIZE + 64);
+
+	/* Kirjoitettavina olevat listat, kartat ja tietueet, syklien havaitsemiseksi */
+	private final List<RödaValue> open = new ArrayList<>();
+
+	public JSONWriter(Consumer<String> consumer, boolean pretty) {
+		this.consumer = consumer;
+		this.pretty = pretty;
+	}
+
+	/**
+	 * Writes the value and gives the rest of the buffer to the consumer.
+	 */
+	public void write(RödaValue value) {
+		writeValue(value, 0);
+		flush();
+	}
+
+	/**
+	 * Gives the contents of the buffer to the consumer, if it is not empty.
+	 */
+	public void flush() {
+		if (buffer.length() == 0) return;
+		String chunk = buffer.toString();
+		buffer.setLength(0);
+		consumer.accept(chunk);
+	}
+
+	private void writeValue(RödaValue value, int depth) {
+		if (buffer.length() >= CHUNK_SIZE) flush();
+		if (value.is(STRING)) escape(buffer, value.str());
+		else if (value.is(INTEGER)) buffer.append(value.integer());
+		else if (value.is(FLOATING)) {
+			double d = value.floating();
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				illegalArguments("can't convert " + d + " to JSON");
+			buffer.append(d);
+		}
+		else if (value.is(BOOLEAN)) buffer.append(value.bool());
+		else if (value.is(LIST)) writeList(value, depth);
+		else if (value.is(MAP)) writeObject(value, value.map(), depth);
+		else if (value instanceof RödaRecordInstance) writeObject(value, value.fields(), depth);
+		else typeMismatch("can't convert " + value.typeString() + " to JSON");
+	}
+
+	private void writeList(RödaValue value, int depth) {
+		List<RödaValue> list = value.list();
+		if (list.isEmpty()) {
+			buffer.append("[]");
+			return;
+		}
+		enter(value);
+		buffer.append('[');
+		// kokonaislukulistan alkioista ei tarvitse luoda arvoja
+		RödaList integers = value instanceof RödaList && ((RödaList) value).containsOnlyIntegers()
+				? (RödaList) value : null;
+		for (int i = 0; i < list.size(); i++) {
+			if (i > 0) buffer.append(',');
+			newline(depth+1);
+			if (integers != null) {
+				if (buffer.length() >= CHUNK_SIZE) flush();
+				buffer.append(integers.integerAt(i));
+			}
+			else writeValue(list.get(i), depth+1);
+		}
+		newline(depth);
+		buffer.append(']');
+		leave();
+	}
+
+	private void writeObject(RödaValue value, Map<String, RödaValue> map, int depth) {
+		if (map.isEmpty()) {
+			buffer.append("{}");
+			return;
+		}
+		enter(value);
+		String[] keys = map.keySet().toArray(new String[map.size()]);
+		Arrays.sort(keys);
+		buffer.append('{');
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0) buffer.append(',');
+			newline(depth+1);
+			escape(buffer, keys[i]);
+			buffer.append(pretty ? ": " : ":");
+			writeValue(map.get(keys[i]), depth+1);
+		}
+		newline(depth);
+		buffer.append('}');
+		leave();
+	}
+
+	private void enter(RödaValue value) {
+		for (RödaValue container : open)
+			if (container == value) illegalArguments("can't convert a cyclic " + value.typeString() + " to JSON");
+		open.add(value);
+	}
+
+	private void leave() {
+		open.remove(open.size()-1);
+	}
+
+	private void newline(int depth) {
+		if (!pretty) return;
+		buffer.append('\n');
+		for (int i = 0; i < depth; i++) buffer.append(INDENT);
+	}
+
+	/**
+	 * Appends the string as a JSON string literal.
+	 */
+	public static void escape(StringBuilder buffer, String string) {
+		buffer.append('"');
+		int start = 0;
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') continue;
+			buffer.append(string, start, i);
+			start = i+1;
+			switch (c) {
+			case '"': buffer.append("\\\""); break;
+			case '\\': buffer.append("\\\\"); break;
+			case '\n': buffer.append("\\n"); break;
+			case '\r': buffer.append("\\r"); break;
+			case '\t': buffer.append("\\t"); break;
+			case '\b': buffer.append("\\b"); break;
+			case '\f': buffer.append("\\f"); break;
+			default:
+				buffer.append("\\u00");
+				buffer.append(Character.forDigit(c >> 4, 16));
+				buffer.append(Character.forDigit(c & 0xf, 16));
+			}
+		}
+		buffer.append(string, start, string.length());
+		buffer.append('"');
+	}
+}
@@ -0,0 +1,267 @@
+package org.kaivos.röda;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MappedLineReader reads the lines of a UTF-8 file through memory-mapped
+ * windows of the file.
+ *
+ * Line boundaries are found in the raw bytes, so lines that are skipped are
+ * never decoded. As with {@link java.nio.file.Files#lines(java.nio.file.Path)},
+ * a line ends at <code>\n</code>, <code>\r</code> or <code>\r\n</code>, and
+ * malformed UTF-8 is an error.
+ *
+ * Only regular files whose size is known can be mapped. Other files, such as
+ * pipes, devices and the files in <code>/proc</code>, must be read as streams;
+ * see {@link #isMappable(File)}.
+ *
+ * A byte range of the file contains the lines that start inside it. Because of
+ * this, ranges that together cover the file, such as those returned by
+ * {@link #ranges(int)}, can be read by different threads, and each line is read
+ * exactly once.
+ *
+ * The byte offset of every {@link #INDEX_STEP}th line is remembered for the
+ * most recently used files, so that skipping lines from the beginning of a file
+ * that has been read before does not have to scan the skipped part again.
+ */
+public final class MappedLineReader implements Closeable {
+
+	/* Kerralla muistiin kuvattavan ikkunan enimmäiskoko */
+	private static final int WINDOW = 1 << 26;
+
+	public static final int INDEX_STEP = 1024;
+	private static final int INDEX_CAPACITY = 16;
+
+	private final File file;
+	private final FileChannel channel;
+	private final long size;
+
+	private MappedByteBuffer window;
+	private long windowStart = 0;
+	private int windowLength = 0;
+
+	private long position = 0;
+	private byte[] line = new byte[256];
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+
+	/**
+	 * Returns true if the file is a regular file with a nonzero size. The size
+	 * of an empty file cannot be told apart from the unknown size of, for
+	 * example, the files in <code>/proc</code>, so empty files are read as
+	 * streams too.
+	 */
+	public static boolean isMappable(File file) {
+		return file.isFile() && file.length() > 0;
+	}
+
+	public MappedLineReader(File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.size = channel.size();
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Returns the byte offset of the next line.
+	 */
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * Moves to the first line that starts at or after the given byte offset.
+	 */
+	public void seek(long offset) throws IOException {
+		position = lineStart(offset);
+	}
+
+	/**
+	 * Skips the given number of lines. Returns false if the file ended first.
+	 */
+	public boolean skipLines(long lines) throws IOException {
+		if (lines <= 0) return true;
+		if (position != 0) {
+			for (long i = 0; i < lines; i++) {
+				if (position >= size) return false;
+				position = nextLine(indexOfNewline(position));
+			}
+			return true;
+		}
+		LineIndex index = index();
+		long line;
+		synchronized (index) {
+			int checkpoint = (int) Math.min(lines / INDEX_STEP, index.count - 1);
+			position = index.offsets[checkpoint];
+			line = (long) checkpoint * INDEX_STEP;
+		}
+		while (line < lines) {
+			if (position >= size) return false;
+			position = nextLine(indexOfNewline(position));
+			line++;
+			if (line % INDEX_STEP == 0) {
+				synchronized (index) {
+					index.add(line / INDEX_STEP, position);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the next line, if it starts before the given byte offset.
+	 *
+	 * @param end the end of the range, or -1 to read until the end of the file
+	 * @return the line without its terminator, or null if there are no more
+	 *         lines in the range
+	 */
+	public String readLine(long end) throws IOException {
+		if (position >= size || end >= 0 && position >= end) return null;
+		long newline = indexOfNewline(position);
+		long length = newline - position;
+		if (length > Integer.MAX_VALUE - 8) throw new IOException("line too long");
+		int n = (int) length;
+		if (line.length < n) line = new byte[Math.max(n, line.length * 2)];
+		copy(position, line, n);
+		position = nextLine(newline);
+		return decoder.decode(ByteBuffer.wrap(line, 0, n)).toString();
+	}
+
+	/**
+	 * Divides the file into at most the given number of byte ranges of about
+	 * equal size, each starting at the beginning of a line. Empty ranges are
+	 * left out.
+	 *
+	 * @return a list of ranges <code>{start, end}</code>, where
+	 *         <code>end</code> is exclusive
+	 */
+	public List<long[]> ranges(int parts) throws IOException {
+		List<long[]> ranges = new ArrayList<>();
+		long start = 0;
+		for (int i = 1; i <= parts; i++) {
+			long end = i == parts ? size : lineStart(size / parts * i);
+			if (end > start) ranges.add(new long[] { start, end });
+			start = Math.max(start, end);
+		}
+		return ranges;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+	/*** Tavujen käsittely ***/
+
+	private long lineStart(long offset) throws IOException {
+		if (offset <= 0) return 0;
+		if (offset >= size) return size;
+		return nextLine(indexOfNewline(offset - 1));
+	}
+
+	/* Palauttaa rivinvaihdon jälkeisen rivin alun; \r\n on yksi rivinvaihto */
+	private long nextLine(long newline) throws IOException {
+		if (newline >= size) return size;
+		if (byteAt(newline) == '\r' && newline + 1 < size && byteAt(newline + 1) == '\n') return newline + 2;
+		return newline + 1;
+	}
+
+	/* Palauttaa seuraavan rivinvaihdon (\n tai \r) sijainnin tai tiedoston koon */
+	private long indexOfNewline(long from) throws IOException {
+		long offset = from;
+		while (offset < size) {
+			map(offset);
+			int start = (int) (offset - windowStart);
+			for (int i = start; i < windowLength; i++) {
+				byte b = window.get(i);
+				if (b == '\n' || b == '\r') return windowStart + i;
+			}
+			offset = windowStart + windowLength;
+		}
+		return size;
+	}
+
+	private byte byteAt(long offset) throws IOException {
+		map(offset);
+		return window.get((int) (offset - windowStart));
+	}
+
+	private void copy(long from, byte[] target, int length) throws IOException {
+		int copied = 0;
+		while (copied < length) {
+			map(from + copied);
+			int start = (int) (from + copied - windowStart);
+			int n = Math.min(length - copied, windowLength - start);
+			// Buffer-tyyppimuunnos pitää käännöksen yhteensopivana Java 8:n kanssa
+			((Buffer) window).position(start);
+			window.get(target, copied, n);
+			copied += n;
+		}
+	}
+
+	private void map(long offset) throws IOException {
+		if (window != null && offset >= windowStart && offset < windowStart + windowLength) return;
+		windowLength = (int) Math.min(WINDOW, size - offset);
+		windowStart = offset;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, offset, windowLength);
+	}
+
+	/*** Rivi-indeksi ***/
+
+	private static final class LineIndex {
+		final long size, lastModified;
+		long[] offsets = new long[16];
+		int count = 1;
+
+		LineIndex(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		void add(long checkpoint, long offset) {
+			if (checkpoint != count) return;
+			if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+			offsets[count++] = offset;
+		}
+	}
+
+	private static final Map<String, LineIndex> indices = new LinkedHashMap<String, LineIndex>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LineIndex> eldest) {
+			return size() > INDEX_CAPACITY;
+		}
+	};
+
+	private LineIndex index() throws IOException {
+		String key = file.getCanonicalPath();
+		long lastModified = file.lastModified();
+		synchronized (indices) {
+			LineIndex index = indices.get(key);
+			// muuttuneen tiedoston indeksi luodaan uudelleen
+			if (index == null || index.size != size || index.lastModified != lastModified) {
+				index = new LineIndex(size, lastModified);
+				indices.put(key, index);
+			}
+			return index;
+		}
+	}
+}
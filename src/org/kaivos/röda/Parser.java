@@ -2,6 +2,9 @@ package org.kaivos.röda;
 
 import static java.util.stream.Collectors.joining;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -18,6 +21,7 @@ import org.kaivos.nept.parser.ParsingException;
 import org.kaivos.nept.parser.Token;
 import org.kaivos.nept.parser.TokenList;
 import org.kaivos.nept.parser.TokenScanner;
+import org.kaivos.röda.runtime.Frame;
 
 public class Parser {
 
@@ -214,7 +218,9 @@ public class Parser {
 		return token.getToken();
 	}
 	
-	public static class DatatypeTree {
+	public static class DatatypeTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		public final List<String> name;
 		public final List<DatatypeTree> subtypes;
 
@@ -263,7 +269,9 @@ public class Parser {
 		return new DatatypeTree(name, subtypes);
 	}
 	
-	static class ProgramTree {
+	static class ProgramTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		List<FunctionTree> functions;
 		List<RecordTree> records;
 		List<List<StatementTree>> preBlocks, postBlocks;
@@ -315,7 +323,9 @@ public class Parser {
 		return new ProgramTree(functions, records, preBlocks, postBlocks);
 	}
 
-	public static class AnnotationTree {
+	public static class AnnotationTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		public final String name;
 		public final List<String> namespace;
 		public final ArgumentsTree args;
@@ -353,8 +363,12 @@ public class Parser {
 		return annotations;
 	}
 
-	public static class RecordTree {
-		public static class FieldTree {
+	public static class RecordTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public static class FieldTree implements Serializable {
+			private static final long serialVersionUID = 1L;
+
 			public final String name;
 			public final DatatypeTree type;
 			final ExpressionTree defaultValue;
@@ -375,7 +389,9 @@ public class Parser {
 				this.annotations = Collections.unmodifiableList(annotations);
 			}
 		}
-		public static class SuperExpression {
+		public static class SuperExpression implements Serializable {
+			private static final long serialVersionUID = 1L;
+
 			public final DatatypeTree type;
 			final List<ExpressionTree> args;
 			
@@ -478,12 +494,15 @@ public class Parser {
 		return new RecordTree(name, typeparams, params, superTypes, recordAnnotations, fields, isValueType);
 	}
 
-	public static class FunctionTree {
+	public static class FunctionTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		public String name;
 		public List<String> typeparams;
 		public List<ParameterTree> parameters, kwparameters;
 		public boolean isVarargs;
 		public List<StatementTree> body;
+		public transient Frame frame; // resolverin täyttämä
 
 		FunctionTree(String name,
 			 List<String> typeparams,
@@ -509,7 +528,9 @@ public class Parser {
 		}
 	}
 
-	public static class ParameterTree {
+	public static class ParameterTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		public String name;
 		public boolean reference;
 		public DatatypeTree type;
@@ -607,7 +628,9 @@ public class Parser {
 		return body;
 	}
 
-	public static class StatementTree {
+	public static class StatementTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		List<Command> commands;
 		StatementTree(List<Command> commands) {
 			this.commands = commands;
@@ -631,7 +654,9 @@ public class Parser {
 		return new StatementTree(commands);
 	}
 
-	static class Command {
+	static class Command implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		enum Type {
 			NORMAL,
 			INTERLEAVE,
@@ -654,12 +679,15 @@ public class Parser {
 		ArgumentsTree arguments;
 		boolean negation;
 		StatementTree cond;
+		List<ExpressionTree> condExpressions; // ehdon lausekkeet, jos ehto on pelkkä listaliteraali
 		String variable;
 		List<String> variables;
 		ExpressionTree list;
 		List<StatementTree> body, elseBody;
 		List<Command> cmds;
 		Command cmd;
+		transient Frame bodyFrame, elseFrame; // resolverin täyttämät
+		transient boolean reuseScope; // silmukan näkyvyysalueen voi käyttää uudelleen, resolverin täyttämä
 		Command() {} // käytä apufunktioita alla
 		String file;
 		int line;
@@ -717,17 +745,23 @@ public class Parser {
 		}
 	}
 	
-	static class ArgumentsTree {
+	static class ArgumentsTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		List<ArgumentTree> arguments;
 		List<KwArgumentTree> kwarguments;
 	}
 
-	static class ArgumentTree {
+	static class ArgumentTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		boolean flattened;
 		ExpressionTree expr;
 	}
 	
-	static class KwArgumentTree {
+	static class KwArgumentTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		String name;
 		ExpressionTree expr;
 	}
@@ -780,6 +814,17 @@ public class Parser {
 		return cmd;
 	}
 
+	/* Ehto, joka on muotoa [a, b, ...], voidaan laskea suoraan ilman virtaa */
+	private static List<ExpressionTree> conditionExpressions(StatementTree cond) {
+		if (cond == null || cond.commands.size() != 1) return null;
+		Command cmd = cond.commands.get(0);
+		if (cmd.type != Command.Type.NORMAL || cmd.name.type != ExpressionTree.Type.LIST
+				|| !cmd.typearguments.isEmpty() || !cmd.arguments.arguments.isEmpty()
+				|| !cmd.arguments.kwarguments.isEmpty())
+			return null;
+		return cmd.name.list;
+	}
+
 	static Command _makeIfOrWhileCommand(String file, int line, boolean isWhile, boolean isNegated,
 					     StatementTree cond, List<StatementTree> body, List<StatementTree> elseBody) {
 		Command cmd = new Command();
@@ -788,6 +833,7 @@ public class Parser {
 		cmd.line = line;
 		cmd.negation = isNegated;
 		cmd.cond = cond;
+		cmd.condExpressions = conditionExpressions(cond);
 		cmd.body = body;
 		cmd.elseBody = elseBody;
 		return cmd;
@@ -802,6 +848,7 @@ public class Parser {
 		cmd.variables = variables;
 		cmd.list = list;
 		cmd.cond = cond;
+		cmd.condExpressions = conditionExpressions(cond);
 		cmd.body = body;
 		return cmd;
 	}
@@ -1111,7 +1158,9 @@ public class Parser {
 		return arguments;
 	}
 	
-	public static class ExpressionTree {
+	public static class ExpressionTree implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		enum Type {
 			VARIABLE,
 			STRING,
@@ -1190,10 +1239,19 @@ public class Parser {
 		ExpressionTree sub, index, index1, index2, step, exprA, exprB;
 		String field;
 		DatatypeTree datatype;
+		transient int depth = -1, slot = -1; // resolverin täyttämät, -1 jos muuttuja haetaan nimellä
+		transient RödaValue constant; // ConstantFolderin täyttämä, jos lausekkeen arvo tiedetään jo latausvaiheessa
+		transient Interpreter.CompiledExpression compiled; // tulkin täyttämä ensimmäisellä suorituskerralla
 
 		String file;
 		int line;
 
+		// transient-kentät saisivat arvon 0, joten muuttuja merkitään ratkaisemattomaksi
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+			in.defaultReadObject();
+			depth = slot = -1;
+		}
+
 		String asString() {
 			switch (type) {
 			case VARIABLE:
@@ -0,0 +1,106 @@
+package org.kaivos.röda;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * PatternCache keeps the most recently used compiled regular expressions, so
+ * that a builtin called once for each line of the input does not have to
+ * compile its pattern again each time.
+ *
+ * The cache is shared by all threads and holds at most {@link #CAPACITY}
+ * patterns. When it is full, the least recently used pattern is removed.
+ */
+public final class PatternCache {
+
+	private PatternCache() {}
+
+	public static final int CAPACITY = 256;
+
+	private static final class Key {
+		final String regex;
+		final int flags;
+
+		Key(String regex, int flags) {
+			this.regex = regex;
+			this.flags = flags;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return flags == other.flags && regex.equals(other.regex);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31*regex.hashCode() + flags;
+		}
+	}
+
+	private static final Map<Key, Pattern> patterns = new LinkedHashMap<Key, Pattern>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Pattern> eldest) {
+			return size() > CAPACITY;
+		}
+	};
+
+	private static long hits = 0, misses = 0;
+
+	/**
+	 * Returns the compiled pattern, compiling it if it is not in the cache.
+	 *
+	 * @throws java.util.regex.PatternSyntaxException if the regular expression
+	 *                                                is invalid
+	 */
+	public static Pattern compile(String regex) {
+		return compile(regex, 0);
+	}
+
+	/**
+	 * Returns the compiled pattern with the given flags, compiling it if it is
+	 * not in the cache.
+	 *
+	 * @throws java.util.regex.PatternSyntaxException if the regular expression
+	 *                                                is invalid
+	 */
+	public static Pattern compile(String regex, int flags) {
+		Key key = new Key(regex, flags);
+		synchronized (patterns) {
+			Pattern pattern = patterns.get(key);
+			if (pattern != null) {
+				hits++;
+				return pattern;
+			}
+			misses++;
+		}
+		// käännetään lukon ulkopuolella, jotta muut säikeet eivät joudu odottamaan
+		Pattern pattern = Pattern.compile(regex, flags);
+		synchronized (patterns) {
+			patterns.put(key, pattern);
+		}
+		return pattern;
+	}
+
+	public static long hits() {
+		synchronized (patterns) {
+			return hits;
+		}
+	}
+
+	public static long misses() {
+		synchronized (patterns) {
+			return misses;
+		}
+	}
+
+	public static int size() {
+		synchronized (patterns) {
+			return patterns.size();
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package org.kaivos.röda;
+
+import java.util.List;
+
+import org.kaivos.röda.Parser.AnnotationTree;
+import org.kaivos.röda.Parser.ArgumentTree;
+import org.kaivos.röda.Parser.ArgumentsTree;
+import org.kaivos.röda.Parser.Command;
+import org.kaivos.röda.Parser.ExpressionTree;
+import org.kaivos.röda.Parser.FunctionTree;
+import org.kaivos.röda.Parser.KwArgumentTree;
+import org.kaivos.röda.Parser.ParameterTree;
+import org.kaivos.röda.Parser.ProgramTree;
+import org.kaivos.röda.Parser.RecordTree;
+import org.kaivos.röda.Parser.StatementTree;
+import org.kaivos.röda.runtime.Frame;
+
+/**
+ * Resolver assigns a frame slot to each local variable of the program.
+ *
+ * Every scope created by the interpreter for a function or a block body gets a
+ * {@link Frame} that lists the variables declared in it. A variable expression
+ * is then annotated with the number of scopes between its use and its
+ * declaration (depth) and its slot in the frame of the declaring scope. Names
+ * that are not declared in any enclosing function (globals, imported names
+ * etc.) are left unresolved and are looked up by name at runtime.
+ */
+final class Resolver {
+
+	private Resolver() {}
+
+	/* Resolverin näkyvyysalue, vastaa täsmälleen yhtä ajonaikaista RödaScopea.
+	 * Jos frame on null, näkyvyysalue on dynaaminen (esim. G tai nimiavaruus). */
+	private static class Context {
+		final Context parent;
+		final Frame frame;
+		boolean captured = false; // näkyvyysalueessa luodaan sulkeuma
+
+		Context(Context parent, Frame frame) {
+			this.parent = parent;
+			this.frame = frame;
+		}
+	}
+
+	private static final Context DYNAMIC = new Context(null, null);
+
+	static void resolveProgram(ProgramTree program) {
+		for (List<StatementTree> block : program.preBlocks)
+			resolveBlock(block, DYNAMIC);
+		for (FunctionTree f : program.functions)
+			resolveFunction(f, DYNAMIC);
+		for (RecordTree r : program.records)
+			resolveRecord(r);
+		for (List<StatementTree> block : program.postBlocks)
+			resolveBlock(block, DYNAMIC);
+	}
+
+	static void resolveStatement(StatementTree statement) {
+		resolveStatement(statement, DYNAMIC);
+	}
+
+	private static void resolveRecord(RecordTree record) {
+		resolveAnnotations(record.annotations);
+		for (RecordTree.SuperExpression superExp : record.superTypes)
+			for (ExpressionTree e : superExp.args)
+				resolveExpression(e, DYNAMIC);
+		for (RecordTree.FieldTree field : record.fields) {
+			resolveAnnotations(field.annotations);
+			if (field.defaultValue != null)
+				resolveExpression(field.defaultValue, DYNAMIC);
+		}
+	}
+
+	private static void resolveAnnotations(List<AnnotationTree> annotations) {
+		for (AnnotationTree a : annotations)
+			resolveArguments(a.args, DYNAMIC);
+	}
+
+	private static void resolveFunction(FunctionTree function, Context ctx) {
+		Frame frame = new Frame();
+		frame.declare("caller_namespace");
+		for (ParameterTree p : function.parameters)
+			frame.declare(p.name);
+		for (ParameterTree p : function.kwparameters) {
+			frame.declare(p.name);
+			// oletusarvot lasketaan globaalissa näkyvyysalueessa
+			resolveExpression(p.defaultValue, DYNAMIC);
+		}
+		function.frame = frame;
+		resolveBlock(function.body, new Context(ctx, frame));
+	}
+
+	/* Lohko, joka suoritetaan annetussa näkyvyysalueessa */
+	private static void resolveBlock(List<StatementTree> block, Context ctx) {
+		for (StatementTree s : block)
+			declareStatement(s, ctx);
+		for (StatementTree s : block)
+			resolveStatement(s, ctx);
+	}
+
+	/* Lohko, jolle tulkki luo oman näkyvyysalueensa */
+	private static Context resolveNewScope(List<StatementTree> block, Context ctx, String... variables) {
+		Frame frame = new Frame();
+		for (String var : variables)
+			frame.declare(var);
+		Context blockCtx = new Context(ctx, frame);
+		resolveBlock(block, blockCtx);
+		return blockCtx;
+	}
+
+	/*** Esittelyt ***/
+
+	private static void declare(Context ctx, String name) {
+		if (ctx.frame != null) ctx.frame.declare(name);
+	}
+
+	private static boolean isDeclared(Context ctx, String name) {
+		for (Context c = ctx; c != null && c.frame != null; c = c.parent) {
+			if (c.frame.indexOf(name) >= 0) return true;
+		}
+		return false;
+	}
+
+	private static void declareStatement(StatementTree statement, Context ctx) {
+		for (Command cmd : statement.commands)
+			declareCommand(cmd, ctx);
+	}
+
+	/* Kerää muuttujat, jotka komento voi luoda nykyiseen näkyvyysalueeseen */
+	private static void declareCommand(Command cmd, Context ctx) {
+		switch (cmd.type) {
+		case VARIABLE:
+			if (cmd.name.type == ExpressionTree.Type.VARIABLE) {
+				if (cmd.operator.equals(":="))
+					declare(ctx, cmd.name.variable);
+				// = luo paikallisen muuttujan vain, jos muuttujaa ei ole vielä olemassa
+				else if (cmd.operator.equals("=") && !isDeclared(ctx, cmd.name.variable))
+					declare(ctx, cmd.name.variable);
+			}
+			else declareExpression(cmd.name, ctx);
+			declareArguments(cmd.arguments, ctx);
+			break;
+		case NORMAL:
+			declareExpression(cmd.name, ctx);
+			declareArguments(cmd.arguments, ctx);
+			break;
+		case RETURN:
+			declareArguments(cmd.arguments, ctx);
+			break;
+		case EXPRESSION:
+		case DEL:
+			declareExpression(cmd.name, ctx);
+			break;
+		case INTERLEAVE:
+			for (Command icmd : cmd.cmds)
+				declareCommand(icmd, ctx);
+			break;
+		case TRY:
+			declareCommand(cmd.cmd, ctx);
+			break;
+		case IF:
+		case WHILE:
+			declareStatement(cmd.cond, ctx);
+			break;
+		case FOR:
+			if (cmd.list != null) declareExpression(cmd.list, ctx);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static void declareArguments(ArgumentsTree args, Context ctx) {
+		for (ArgumentTree arg : args.arguments)
+			declareExpression(arg.expr, ctx);
+		for (KwArgumentTree arg : args.kwarguments)
+			declareExpression(arg.expr, ctx);
+	}
+
+	/* Lausekkeiden sisällä olevat komennot suoritetaan samassa näkyvyysalueessa */
+	private static void declareExpression(ExpressionTree e, Context ctx) {
+		if (e == null) return;
+		switch (e.type) {
+		case STATEMENT_LIST:
+		case STATEMENT_SINGLE:
+			declareStatement(e.statement, ctx);
+			break;
+		case BLOCK:
+			break;
+		default:
+			if (e.list != null)
+				for (ExpressionTree sub : e.list)
+					declareExpression(sub, ctx);
+			declareExpression(e.sub, ctx);
+			declareExpression(e.index, ctx);
+			declareExpression(e.index1, ctx);
+			declareExpression(e.index2, ctx);
+			declareExpression(e.step, ctx);
+			declareExpression(e.exprA, ctx);
+			declareExpression(e.exprB, ctx);
+		}
+	}
+
+	/*** Viittaukset ***/
+
+	private static void resolveStatement(StatementTree statement, Context ctx) {
+		for (Command cmd : statement.commands)
+			resolveCommand(cmd, ctx);
+	}
+
+	private static void resolveCommand(Command cmd, Context ctx) {
+		switch (cmd.type) {
+		case NORMAL:
+		case VARIABLE:
+			resolveExpression(cmd.name, ctx);
+			resolveArguments(cmd.arguments, ctx);
+			break;
+		case RETURN:
+			resolveArguments(cmd.arguments, ctx);
+			break;
+		case EXPRESSION:
+		case DEL:
+			resolveExpression(cmd.name, ctx);
+			break;
+		case INTERLEAVE:
+			for (Command icmd : cmd.cmds)
+				resolveCommand(icmd, ctx);
+			break;
+		case TRY:
+			resolveCommand(cmd.cmd, ctx);
+			break;
+		case IF:
+		case WHILE: {
+			resolveStatement(cmd.cond, ctx);
+			Context bodyCtx = resolveNewScope(cmd.body, ctx);
+			cmd.bodyFrame = bodyCtx.frame;
+			cmd.reuseScope = !bodyCtx.captured;
+			if (cmd.elseBody != null)
+				cmd.elseFrame = resolveNewScope(cmd.elseBody, ctx).frame;
+			break;
+		}
+		case FOR: {
+			if (cmd.list != null) resolveExpression(cmd.list, ctx);
+			Frame frame = new Frame();
+			for (String var : cmd.variables)
+				frame.declare(var);
+			Context forCtx = new Context(ctx, frame);
+			// ehto lasketaan samassa näkyvyysalueessa kuin runko
+			if (cmd.cond != null) declareStatement(cmd.cond, forCtx);
+			for (StatementTree s : cmd.body)
+				declareStatement(s, forCtx);
+			if (cmd.cond != null) resolveStatement(cmd.cond, forCtx);
+			for (StatementTree s : cmd.body)
+				resolveStatement(s, forCtx);
+			cmd.bodyFrame = frame;
+			// sulkeuma säilyttää viittauksen kierroksen muuttujiin, joten sille luodaan aina uusi näkyvyysalue
+			cmd.reuseScope = !forCtx.captured;
+			break;
+		}
+		case TRY_DO:
+			cmd.bodyFrame = resolveNewScope(cmd.body, ctx).frame;
+			if (cmd.variable != null)
+				cmd.elseFrame = resolveNewScope(cmd.elseBody, ctx, cmd.variable).frame;
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static void resolveArguments(ArgumentsTree args, Context ctx) {
+		for (ArgumentTree arg : args.arguments)
+			resolveExpression(arg.expr, ctx);
+		for (KwArgumentTree arg : args.kwarguments)
+			resolveExpression(arg.expr, ctx);
+	}
+
+	private static void resolveExpression(ExpressionTree e, Context ctx) {
+		if (e == null) return;
+		switch (e.type) {
+		case VARIABLE: {
+			int depth = 0;
+			for (Context c = ctx; c != null && c.frame != null; c = c.parent, depth++) {
+				int slot = c.frame.indexOf(e.variable);
+				if (slot >= 0) {
+					e.depth = depth;
+					e.slot = slot;
+					break;
+				}
+			}
+			break;
+		}
+		case STATEMENT_LIST:
+		case STATEMENT_SINGLE:
+			resolveStatement(e.statement, ctx);
+			break;
+		case BLOCK:
+			for (Context c = ctx; c != null && c.frame != null; c = c.parent)
+				c.captured = true;
+			resolveFunction(e.block, ctx);
+			break;
+		default:
+			if (e.list != null)
+				for (ExpressionTree sub : e.list)
+					resolveExpression(sub, ctx);
+			resolveExpression(e.sub, ctx);
+			resolveExpression(e.index, ctx);
+			resolveExpression(e.index1, ctx);
+			resolveExpression(e.index2, ctx);
+			resolveExpression(e.step, ctx);
+			resolveExpression(e.exprA, ctx);
+			resolveExpression(e.exprB, ctx);
+		}
+	}
+}
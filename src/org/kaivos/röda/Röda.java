@@ -7,7 +7,6 @@ import static org.kaivos.röda.Interpreter.INTERPRETER;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
@@ -93,7 +92,9 @@ public class Röda {
 		List<String> eval = new ArrayList<>();
 		List<String> argsForRöda = new ArrayList<>();
 		boolean interactive = System.console() != null, forcedI = false, disableInteraction = false,
-				enableDebug = true, enableProfiling = false, divideByInvocations = false, singleThreadMode = false;
+				enableDebug = true, enableProfiling = false, divideByInvocations = false, singleThreadMode = false,
+				enableOptimization = false, enableCompilation = false;
+		File astCacheDir = AstCache.defaultDirectory();
 		
 		for (int i = 0; i < args.length; i++) {
 			if (file != null) {
@@ -132,6 +133,33 @@ public class Röda {
 			case "-s":
 				singleThreadMode = true;
 				continue;
+			case "--optimize":
+				enableOptimization = true;
+				continue;
+			case "--compile":
+				enableOptimization = true;
+				enableCompilation = true;
+				continue;
+			case "--ast-cache":
+				astCacheDir = new File(args[++i]);
+				continue;
+			case "--no-ast-cache":
+				astCacheDir = null;
+				continue;
+			case "--pipe-capacity":
+				RödaStream.pipeCapacity = Integer.parseInt(args[++i]);
+				continue;
+			case "--scheduler": {
+				Scheduler scheduler = Scheduler.byName(args[++i]);
+				if (scheduler == null) {
+					System.err.println("Unknown or unsupported scheduler: " + args[i]);
+					System.exit(1);
+					return;
+				}
+				Interpreter.scheduler.shutdown();
+				Interpreter.scheduler = scheduler;
+				continue;
+			}
 			case "-v":
 			case "--version":
 				System.out.println("Röda " + RÖDA_VERSION_STRING);
@@ -140,15 +168,21 @@ public class Röda {
 			case "--help": {
 				System.out.println("Usage: röda [options] file | röda [options] -i | röda [options]");
 				System.out.println("Available options:");
+				System.out.println("--ast-cache dir  Cache parsed source files in the given directory");
+				System.out.println("--no-ast-cache   Parse source files every time they are loaded");
+				System.out.println("--compile        Like --optimize, and compile frequently evaluated expressions to JVM bytecode");
 				System.out.println("-D               Disable stack tracing (may speed up execution a little)");
 				System.out.println("-e stmt          Evaluate the given statement before executing the given files");
 				System.out.println("-i               Enable console mode");
 				System.out.println("-I               Disable console mode");
 				System.out.println("-n               Disable interactive mode");
+				System.out.println("--optimize       Fold constant expressions and convert expressions to closures");
 				System.out.println("-p prompt        Change the prompt in interactive mode");
+				System.out.println("--pipe-capacity n Set the number of values a pipe can hold (default 1024)");
 				System.out.println("-P               Disable prompt in interactive mode");
 				System.out.println("--per-invocation Divide CPU time by invocation number in profiler output");
 				System.out.println("-s               Enable single thread mode");
+				System.out.println("--scheduler name Run pipelines using threads, virtual or forkjoin");
 				System.out.println("-t               Enable time profiler");
 				System.out.println("-v, --version    Show the version number of the interpreter");
 				System.out.println("-h, --help       Show this help text");
@@ -171,6 +205,9 @@ public class Röda {
 		INTERPRETER.enableDebug = enableDebug;
 		INTERPRETER.enableProfiling = enableProfiling;
 		INTERPRETER.singleThreadMode = singleThreadMode;
+		INTERPRETER.enableOptimization = enableOptimization;
+		INTERPRETER.enableCompilation = enableCompilation;
+		if (astCacheDir != null) INTERPRETER.astCache = new AstCache(astCacheDir);
 		
 		INTERPRETER.populateBuiltins();
 		
@@ -221,20 +258,13 @@ public class Röda {
 		if (file != null) {
 			File fileObj = new File(file);
 			interpretEOption(eval);
-			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fileObj)));
-			String code = "";
-			String line = "";
-			while ((line = in.readLine()) != null) {
-				code += line + "\n";
-			}
-			in.close();
 			List<RödaValue> valueArgs = argsForRöda.stream()
 				.map(RödaString::of)
 				.collect(Collectors.toList());
 			try {
 				INTERPRETER.G.setLocal("SOURCE_FILE", RödaString.of(fileObj.getAbsolutePath()));
 				INTERPRETER.G.setLocal("SOURCE_DIR", RödaString.of(fileObj.getAbsoluteFile().getParentFile().getAbsolutePath()));
-				INTERPRETER.interpret(code, valueArgs, file, STDIN, STDOUT);
+				INTERPRETER.interpretFile(fileObj, valueArgs, file, STDIN, STDOUT);
 			} catch (ParsingException e) {
 				System.err.println("[E] " + e.getMessage());
 			} catch (Interpreter.RödaException e) {
@@ -3,7 +3,10 @@ package org.kaivos.röda;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
@@ -35,6 +38,17 @@ public abstract class RödaStream implements Iterable<RödaValue> {
 	protected abstract RödaValue get();
 	protected abstract void put(RödaValue value);
 
+	protected void putAll(List<RödaValue> values) {
+		for (RödaValue value : values) put(value);
+	}
+
+	/**
+	 * The number of values that writers should collect before pushing them
+	 * with {@link #pushAll(List)}, and the most values a pipe moves to its
+	 * reader at a time.
+	 */
+	public static final int BATCH_SIZE = 256;
+
 	/**
 	 * Closes the stream permanently.
 	 */
@@ -62,12 +76,29 @@ public abstract class RödaStream implements Iterable<RödaValue> {
 	 */
 	public abstract boolean finished();
 
+	/**
+	 * Tells the stream that no more values will be pulled from it. A bounded
+	 * stream will no longer block writers after this and discards the values
+	 * that are pushed to it.
+	 */
+	public void abandon() {
+	}
+
 	/**
 	 * Pushes a new value to the stream.
 	 */
 	public final void push(RödaValue value) {
 		put(value);
 	}
+
+	/**
+	 * Pushes the given values to the stream in order. A pipe takes each batch
+	 * of values with one lock acquisition, so this is faster than pushing the
+	 * values one by one.
+	 */
+	public final void pushAll(List<RödaValue> values) {
+		putAll(values);
+	}
 	
 	/**
 	 * Adds a new value to the stack.
@@ -166,6 +197,24 @@ public abstract class RödaStream implements Iterable<RödaValue> {
 		return stream;
 	}
 
+	/**
+	 * The default capacity of the streams created by {@link #makePipe()}.
+	 */
+	public static int pipeCapacity = 1024;
+
+	/**
+	 * Creates a bounded stream that connects two commands running in different
+	 * threads. Writing to a full pipe blocks until the reader has pulled values
+	 * from it, so the reader must not be in the same thread as the writer.
+	 */
+	public static RödaStream makePipe() {
+		return makePipe(pipeCapacity);
+	}
+
+	public static RödaStream makePipe(int capacity) {
+		return new RödaPipe(capacity);
+	}
+
 	public static RödaStream makeStream(Consumer<RödaValue> put, Supplier<RödaValue> get, Runnable finish,
 			Supplier<Boolean> finished) {
 		RödaStream stream = new RödaStream() {
@@ -195,6 +244,150 @@ public abstract class RödaStream implements Iterable<RödaValue> {
 		return stream;
 	}
 
+	static class RödaPipe extends RödaStream {
+		private final int capacity;
+		private final Deque<RödaValue> queue;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition notEmpty = lock.newCondition(), notFull = lock.newCondition();
+		private boolean writerFinished = false, abandoned = false;
+
+		/* lukija siirtää kerralla niin monta arvoa kuin jonossa on omaan puskuriinsa ja lukee
+		 * puskuria lukitsematta; putkella on vain yksi lukija, kuten pinollakin */
+		private final RödaValue[] batch;
+		private int batchPosition = 0, batchSize = 0;
+		private volatile boolean finished = false;
+
+		/* odottavat lukon ollessa varattuna */
+		private final ForkJoinPool.ManagedBlocker readBlocker = new ForkJoinPool.ManagedBlocker() {
+			@Override
+			public boolean isReleasable() {
+				return !queue.isEmpty() || writerFinished;
+			}
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (!isReleasable()) notEmpty.await();
+				return isReleasable();
+			}
+		};
+
+		private final ForkJoinPool.ManagedBlocker writeBlocker = new ForkJoinPool.ManagedBlocker() {
+			@Override
+			public boolean isReleasable() {
+				return queue.size() < capacity || abandoned;
+			}
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (!isReleasable()) notFull.await();
+				return isReleasable();
+			}
+		};
+
+		RödaPipe(int capacity) {
+			if (capacity < 1) error("illegal pipe capacity: " + capacity);
+			this.capacity = capacity;
+			this.queue = new ArrayDeque<>(Math.min(capacity, 64));
+			this.batch = new RödaValue[Math.min(capacity, BATCH_SIZE)];
+		}
+
+		@Override
+		public RödaValue get() {
+			if (batchPosition == batchSize && !refill()) return null;
+			RödaValue value = batch[batchPosition];
+			batch[batchPosition++] = null;
+			return value;
+		}
+
+		/* Siirtää jonon arvot lukijan puskuriin; palauttaa false, jos putki on loppunut */
+		private boolean refill() {
+			if (finished) return false;
+			lock.lock();
+			try {
+				if (queue.isEmpty() && !writerFinished) Scheduler.block(readBlocker);
+				if (queue.isEmpty()) {
+					finished = true;
+					return false;
+				}
+				batchPosition = 0;
+				batchSize = 0;
+				while (batchSize < batch.length && !queue.isEmpty())
+					batch[batchSize++] = queue.pollFirst();
+				notFull.signalAll();
+				return true;
+			} catch (InterruptedException e) {
+				error(e);
+				return false;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void put(RödaValue value) {
+			lock.lock();
+			try {
+				if (queue.size() >= capacity && !abandoned) Scheduler.block(writeBlocker);
+				// hylättyyn putkeen kirjoitettuja arvoja ei lueta koskaan
+				if (abandoned) return;
+				queue.addLast(value);
+				if (queue.size() == 1) notEmpty.signal();
+			} catch (InterruptedException e) {
+				error(e);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/* Lisää jonoon kerralla niin monta arvoa kuin siihen mahtuu */
+		@Override
+		protected void putAll(List<RödaValue> values) {
+			Iterator<RödaValue> iterator = values.iterator();
+			while (iterator.hasNext()) {
+				lock.lock();
+				try {
+					if (queue.size() >= capacity && !abandoned) Scheduler.block(writeBlocker);
+					if (abandoned) return;
+					boolean wasEmpty = queue.isEmpty();
+					while (iterator.hasNext() && queue.size() < capacity) queue.addLast(iterator.next());
+					if (wasEmpty) notEmpty.signal();
+				} catch (InterruptedException e) {
+					error(e);
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public boolean finished() {
+			return finished;
+		}
+
+		@Override
+		public void finish() {
+			lock.lock();
+			try {
+				writerFinished = true;
+				notEmpty.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void abandon() {
+			lock.lock();
+			try {
+				abandoned = true;
+				queue.clear();
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
 	static class RödaStreamImpl extends RödaStream {
 		BlockingQueue<Optional<RödaValue>> queue = new LinkedBlockingQueue<>();
 		boolean finished = false;
@@ -204,7 +397,12 @@ public abstract class RödaStream implements Iterable<RödaValue> {
 			if (finished) return null;
 			Optional<RödaValue> value;
 			try {
-				value = queue.take();
+				value = queue.poll();
+				if (value == null) {
+					QueueBlocker blocker = new QueueBlocker();
+					Scheduler.block(blocker);
+					value = blocker.value;
+				}
 			} catch (InterruptedException e) {
 				error(e);
 				return null;
@@ -232,6 +430,21 @@ public abstract class RödaStream implements Iterable<RödaValue> {
 			queue.add(Optional.empty());
 		}
 
+		private class QueueBlocker implements ForkJoinPool.ManagedBlocker {
+			Optional<RödaValue> value;
+
+			@Override
+			public boolean isReleasable() {
+				return value != null || (value = queue.poll()) != null;
+			}
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (value == null) value = queue.take();
+				return true;
+			}
+		}
+
 		@Override
 		public String toString() {
 			return "" + (char) ('A' + id);
@@ -1,11 +1,11 @@
 package org.kaivos.röda;
 
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.kaivos.röda.runtime.Datatype;
+import org.kaivos.röda.runtime.IdentitySet;
 import org.kaivos.röda.runtime.Function;
 import org.kaivos.röda.type.RödaBoolean;
 
@@ -34,7 +34,7 @@ public abstract class RödaValue {
 	public abstract String str();
 	
 	public Pattern pattern() {
-		return Pattern.compile(str());
+		return PatternCache.compile(str());
 	}
 
 	public String target() {
@@ -200,30 +200,30 @@ public abstract class RödaValue {
 		}
 	}
 
-	private List<Datatype> identities = new ArrayList<>();
+	private IdentitySet identities = IdentitySet.EMPTY;
 
 	protected void assumeIdentity(String name) {
-		identities.add(new Datatype(name));
+		identities = identities.with(new Datatype(name));
 	}
 
 	protected void assumeIdentity(Datatype identity) {
-		identities.add(identity);
+		identities = identities.with(identity);
 	}
 
-	protected void assumeIdentities(List<Datatype> identities) {
-		this.identities.addAll(identities);
+	protected void assumeIdentities(IdentitySet identities) {
+		this.identities = identities;
 	}
 
-	public List<Datatype> identities() {
+	public IdentitySet identities() {
 		return identities;
 	}
 
 	public Datatype basicIdentity() {
-		return identities.get(0);
+		return identities.basic();
 	}
 
 	public boolean is(String type) {
-		return is(new Datatype(type));
+		return identities.contains(type);
 	}
 	
 	public boolean is(Datatype type) {
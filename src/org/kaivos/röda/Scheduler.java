@@ -0,0 +1,236 @@
+package org.kaivos.röda;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler runs the concurrent tasks of the interpreter: the commands of a
+ * pipeline, threads created with the <code>thread</code> builtin and the helper
+ * tasks of <code>exec</code>.
+ *
+ * The tasks of a pipeline wait for each other, so a scheduler must not leave a
+ * task unscheduled while all the other tasks are blocked. Röda streams block
+ * through {@link #block(ForkJoinPool.ManagedBlocker)}, which lets a fork-join
+ * pool start a compensating thread while a task is waiting.
+ */
+public abstract class Scheduler {
+
+	/* Kuinka kauan shutdown odottaa tehtävien päättymistä */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+	private final String name;
+
+	protected Scheduler(String name) {
+		this.name = name;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	/**
+	 * Submits a task that communicates with other tasks through Röda streams.
+	 */
+	public abstract Future<?> submit(Runnable task);
+
+	/**
+	 * Submits a task that may block outside Röda streams, for example while
+	 * reading the output of a process.
+	 */
+	public Future<?> submitBlocking(Runnable task) {
+		return submit(task);
+	}
+
+	/**
+	 * Executes a task whose result is not needed.
+	 */
+	public void execute(Runnable task) {
+		submit(task);
+	}
+
+	/**
+	 * Stops accepting new tasks and waits a limited time for the submitted
+	 * tasks to finish.
+	 */
+	public abstract void shutdown();
+
+	/**
+	 * Blocks the current thread using the given blocker.
+	 */
+	public static void block(ForkJoinPool.ManagedBlocker blocker) throws InterruptedException {
+		ForkJoinPool.managedBlock(blocker);
+	}
+
+	/**
+	 * Waits for the given task to finish.
+	 */
+	public static <T> T await(Future<T> future) throws InterruptedException, ExecutionException {
+		if (!future.isDone()) {
+			block(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean isReleasable() {
+					return future.isDone();
+				}
+
+				@Override
+				public boolean block() throws InterruptedException {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						// heitetään uudelleen alla
+					}
+					return true;
+				}
+			});
+		}
+		return future.get();
+	}
+
+	private static class ExecutorScheduler extends Scheduler {
+		private final ExecutorService executor;
+
+		ExecutorScheduler(String name, ExecutorService executor) {
+			super(name);
+			this.executor = executor;
+		}
+
+		@Override
+		public Future<?> submit(Runnable task) {
+			return executor.submit(task);
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			executor.execute(task);
+		}
+
+		@Override
+		public void shutdown() {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static class ForkJoinScheduler extends Scheduler {
+		private final ForkJoinPool pool;
+
+		ForkJoinScheduler(int parallelism) {
+			super("forkjoin");
+			pool = new ForkJoinPool(parallelism);
+		}
+
+		/* Tehtävä palautetaan FutureTaskina, jotta sitä odottava säie ei ala suorittaa
+		 * muita tehtäviä: tulkin säiekohtainen tila (kutsupino) kuuluu yhdelle tehtävälle. */
+		@Override
+		public Future<?> submit(Runnable task) {
+			FutureTask<?> future = new FutureTask<>(task, null);
+			pool.execute(future);
+			return future;
+		}
+
+		@Override
+		public Future<?> submitBlocking(Runnable task) {
+			return submit(() -> {
+				try {
+					block(new ForkJoinPool.ManagedBlocker() {
+						boolean done = false;
+
+						@Override
+						public boolean isReleasable() {
+							return done;
+						}
+
+						@Override
+						public boolean block() {
+							task.run();
+							done = true;
+							return true;
+						}
+					});
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+
+		@Override
+		public void shutdown() {
+			pool.shutdown();
+			try {
+				pool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Returns a scheduler that starts a new platform thread for each task
+	 * unless an idle thread is available.
+	 */
+	public static Scheduler threads() {
+		return new ExecutorScheduler("threads", Executors.newCachedThreadPool());
+	}
+
+	/**
+	 * Returns a scheduler that runs each task in a virtual thread, or null if
+	 * the JVM does not support virtual threads.
+	 */
+	public static Scheduler virtualThreads() {
+		try {
+			ExecutorService executor = (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			return new ExecutorScheduler("virtual", executor);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a scheduler that runs the tasks in a fork-join pool of the given
+	 * parallelism. Threads are added to the pool only while tasks are blocked.
+	 */
+	public static Scheduler forkJoin(int parallelism) {
+		return new ForkJoinScheduler(parallelism);
+	}
+
+	/**
+	 * Returns the scheduler with the given name, or null if there is no such
+	 * scheduler or it is not supported by the JVM.
+	 */
+	public static Scheduler byName(String name) {
+		switch (name) {
+		case "threads":
+			return threads();
+		case "virtual":
+			return virtualThreads();
+		case "forkjoin":
+			return forkJoin(Runtime.getRuntime().availableProcessors());
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns virtual threads if they are supported, and a cached thread pool
+	 * otherwise.
+	 *
+	 * The fork-join pool is not the default, because it starts a compensating
+	 * thread for each blocked task, so a deep pipeline gets more threads and
+	 * runs slower than with the cached pool.
+	 */
+	public static Scheduler makeDefault() {
+		Scheduler scheduler = virtualThreads();
+		if (scheduler != null) return scheduler;
+		return threads();
+	}
+}
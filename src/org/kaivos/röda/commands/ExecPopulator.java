@@ -26,6 +26,7 @@ import org.kaivos.röda.Interpreter.RödaScope;
 import org.kaivos.röda.Parser;
 import org.kaivos.röda.Parser.DatatypeTree;
 import org.kaivos.röda.RödaStream;
+import org.kaivos.röda.Scheduler;
 import org.kaivos.röda.runtime.Function.Parameter;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.type.RödaNativeFunction;
@@ -117,12 +118,12 @@ public final class ExecPopulator {
 				Runnable output = () -> outputThread(pout, out, lineMode);
 				Runnable errput = () -> outputThread(perr, out, lineMode);
 				Future<?> futureIn = null, futureOut = null, futureErr = null;
-				if (!inheritIn) futureIn = Interpreter.executor.submit(input);
-				if (!inheritOut) futureOut = Interpreter.executor.submit(output);
-				if (!inheritErr) futureErr = Interpreter.executor.submit(errput);
-				if (!inheritOut) futureOut.get();
-				if (!inheritErr) futureErr.get();
-				if (!inheritIn) futureIn.get();
+				if (!inheritIn) futureIn = Interpreter.scheduler.submitBlocking(input);
+				if (!inheritOut) futureOut = Interpreter.scheduler.submitBlocking(output);
+				if (!inheritErr) futureErr = Interpreter.scheduler.submitBlocking(errput);
+				if (!inheritOut) Scheduler.await(futureOut);
+				if (!inheritErr) Scheduler.await(futureErr);
+				if (!inheritIn) Scheduler.await(futureIn);
 				p.waitFor();
 			} catch (IOException e) {
 				error(e);
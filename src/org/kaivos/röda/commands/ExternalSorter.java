@@ -0,0 +1,358 @@
+package org.kaivos.röda.commands;
+
+import static org.kaivos.röda.Interpreter.error;
+import static org.kaivos.röda.RödaValue.BOOLEAN;
+import static org.kaivos.röda.RödaValue.FLOATING;
+import static org.kaivos.röda.RödaValue.INTEGER;
+import static org.kaivos.röda.RödaValue.LIST;
+import static org.kaivos.röda.RödaValue.MAP;
+import static org.kaivos.röda.RödaValue.STRING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.type.RödaBoolean;
+import org.kaivos.röda.type.RödaFloating;
+import org.kaivos.röda.type.RödaInteger;
+import org.kaivos.röda.type.RödaList;
+import org.kaivos.röda.type.RödaMap;
+import org.kaivos.röda.type.RödaString;
+
+/**
+ * ExternalSorter sorts a stream of values that does not necessarily fit in
+ * memory.
+ *
+ * Values are collected in memory until their estimated size exceeds the memory
+ * limit. The collected values are then sorted and written to a temporary file
+ * (a run). When the input ends, the runs are merged. Only strings, numbers,
+ * booleans and untyped lists and maps can be written to a run.
+ *
+ * If a key function is given, the key of each value is computed once, before
+ * the values are sorted, and stored with the value also in the runs.
+ *
+ * The sort is stable: equal values are output in the order they were added.
+ */
+final class ExternalSorter implements Closeable {
+
+	/* Kerralla yhdistettävien ajojen enimmäismäärä, rajoittaa avoimia tiedostoja */
+	private static final int MAX_FAN_IN = 64;
+
+	private static final byte T_STRING = 0, T_INTEGER = 1, T_FLOATING = 2, T_BOOLEAN = 3, T_LIST = 4,
+			T_MAP = 5;
+
+	private static class Entry {
+		RödaValue key;
+		final RödaValue value;
+
+		Entry(RödaValue key, RödaValue value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final UnaryOperator<RödaValue> key;
+	private final boolean parallelKey;
+	private final Comparator<Entry> comparator;
+	private final long memoryLimit;
+	private final boolean naturalOrder;
+
+	private List<Entry> buffer = new ArrayList<>();
+	private long bufferSize = 0;
+	private final List<File> runs = new ArrayList<>();
+	private File directory = null;
+
+	/**
+	 * @param key           the function that computes the sort key of a value
+	 * @param parallelKey   whether the key function may be called from several
+	 *                      threads at the same time
+	 * @param keyComparator the order of the keys, or null for the builtin order
+	 * @param memoryLimit   the estimated size of values, in bytes, that is kept
+	 *                      in memory before they are written to disk
+	 */
+	ExternalSorter(UnaryOperator<RödaValue> key, boolean parallelKey, Comparator<RödaValue> keyComparator,
+			long memoryLimit) {
+		this.key = key;
+		this.parallelKey = parallelKey;
+		// vain sisäänrakennettua järjestystä voi käyttää usealla säikeellä, käyttäjän funktioilla voi olla sivuvaikutuksia
+		this.naturalOrder = keyComparator == null;
+		Comparator<RödaValue> order = naturalOrder ? ValueOrder.NATURAL : keyComparator;
+		this.comparator = (a, b) -> order.compare(a.key, b.key);
+		this.memoryLimit = memoryLimit;
+	}
+
+	void add(RödaValue value) {
+		// avain lasketaan vasta ennen lajittelua, jotta laskennan voi tehdä rinnakkain
+		buffer.add(new Entry(key == null ? value : null, value));
+		bufferSize += estimateSize(value);
+		if (bufferSize > memoryLimit) {
+			spill();
+		}
+	}
+
+	/**
+	 * Pushes the sorted values to the given consumer and removes the temporary
+	 * files.
+	 */
+	void finish(Consumer<RödaValue> out) {
+		List<Entry> entries = sortBuffer();
+		if (runs.isEmpty()) {
+			for (Entry entry : entries) out.accept(entry.value);
+			return;
+		}
+		if (!entries.isEmpty()) runs.add(writeRun(entries));
+		while (runs.size() > MAX_FAN_IN) {
+			List<File> group = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+			runs.subList(0, MAX_FAN_IN).clear();
+			File merged = newRunFile();
+			try (DataOutputStream dos = openOutput(merged)) {
+				merge(group, entry -> writeEntry(dos, entry));
+			} catch (IOException e) {
+				error(e);
+			}
+			// yhdistetty ajo sisältää aiemmat arvot, joten se sijoitetaan ensimmäiseksi
+			runs.add(0, merged);
+		}
+		merge(runs, entry -> out.accept(entry.value));
+	}
+
+	@Override
+	public void close() {
+		if (directory == null) return;
+		for (File run : runs) run.delete();
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files) file.delete();
+		directory.delete();
+	}
+
+	private List<Entry> sortBuffer() {
+		Entry[] array = buffer.toArray(new Entry[buffer.size()]);
+		if (key != null) {
+			if (parallelKey) Arrays.stream(array).parallel().forEach(entry -> entry.key = key.apply(entry.value));
+			else for (Entry entry : array) entry.key = key.apply(entry.value);
+		}
+		if (naturalOrder && key == null) {
+			// lajitellaan arvot suoraan, jolloin samantyyppiset luvut voidaan lajitella primitiivitaulukkona
+			RödaValue[] values = new RödaValue[array.length];
+			for (int i = 0; i < array.length; i++) values[i] = array[i].value;
+			ValueOrder.sort(values, true);
+			for (int i = 0; i < array.length; i++) array[i] = new Entry(values[i], values[i]);
+		}
+		else if (naturalOrder) Arrays.parallelSort(array, comparator);
+		else Arrays.sort(array, comparator);
+		buffer = new ArrayList<>();
+		bufferSize = 0;
+		return Arrays.asList(array);
+	}
+
+	private void spill() {
+		runs.add(writeRun(sortBuffer()));
+	}
+
+	private File newRunFile() {
+		try {
+			if (directory == null)
+				directory = Files.createTempDirectory("röda-sort").toFile();
+			return File.createTempFile("run", ".bin", directory);
+		} catch (IOException e) {
+			error(e);
+			return null;
+		}
+	}
+
+	private File writeRun(List<Entry> entries) {
+		File run = newRunFile();
+		try (DataOutputStream dos = openOutput(run)) {
+			for (Entry entry : entries)
+				writeEntry(dos, entry);
+		} catch (IOException e) {
+			error(e);
+		}
+		return run;
+	}
+
+	private static DataOutputStream openOutput(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	}
+
+	/* Ajon lukija, joka pitää muistissa ajon seuraavan arvon */
+	private class RunReader {
+		final int index;
+		final DataInputStream in;
+		Entry head;
+
+		RunReader(int index, File file) throws IOException {
+			this.index = index;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		}
+
+		boolean advance() throws IOException {
+			int tag = in.read();
+			if (tag < 0) {
+				head = null;
+				return false;
+			}
+			RödaValue value = read(in, tag);
+			head = key == null ? new Entry(value, value) : new Entry(value, read(in, in.readByte()));
+			return true;
+		}
+	}
+
+	private void merge(List<File> files, Consumer<Entry> out) {
+		// yhtä suurista arvoista otetaan ensin aiemman ajon arvo, jotta järjestys säilyy vakaana
+		PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(files.size(), 1), (a, b) -> {
+			int c = comparator.compare(a.head, b.head);
+			return c != 0 ? c : Integer.compare(a.index, b.index);
+		});
+		List<RunReader> readers = new ArrayList<>();
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				RunReader reader = new RunReader(i, files.get(i));
+				readers.add(reader);
+				if (reader.advance()) queue.add(reader);
+			}
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				out.accept(reader.head);
+				if (reader.advance()) queue.add(reader);
+			}
+		} catch (IOException e) {
+			error(e);
+		} finally {
+			for (RunReader reader : readers) {
+				try {
+					reader.in.close();
+				} catch (IOException e) {
+					// tiedosto poistetaan joka tapauksessa
+				}
+			}
+			for (File file : files) file.delete();
+		}
+	}
+
+	/*** Arvojen sarjallistaminen ***/
+
+	/* Karkea arvio arvon viemästä muistista tavuina */
+	private static long estimateSize(RödaValue value) {
+		if (value.is(STRING)) return 56 + 2L*value.str().length();
+		if (value.is(LIST)) {
+			long size = 64;
+			for (RödaValue item : value.list()) size += 8 + estimateSize(item);
+			return size;
+		}
+		if (value.is(MAP)) {
+			long size = 64;
+			for (Map.Entry<String, RödaValue> entry : value.map().entrySet())
+				size += 96 + 2L*entry.getKey().length() + estimateSize(entry.getValue());
+			return size;
+		}
+		return 32;
+	}
+
+	/* Avaimellinen arvo kirjoitetaan muodossa avain, arvo */
+	private void writeEntry(DataOutputStream out, Entry entry) {
+		if (key != null) write(out, entry.key);
+		write(out, entry.value);
+	}
+
+	private static void write(DataOutputStream out, RödaValue value) {
+		try {
+			if (value.is(STRING)) {
+				out.writeByte(T_STRING);
+				writeString(out, value.str());
+			}
+			else if (value.is(INTEGER)) {
+				out.writeByte(T_INTEGER);
+				out.writeLong(value.integer());
+			}
+			else if (value.is(FLOATING)) {
+				out.writeByte(T_FLOATING);
+				out.writeDouble(value.floating());
+			}
+			else if (value.is(BOOLEAN)) {
+				out.writeByte(T_BOOLEAN);
+				out.writeBoolean(value.bool());
+			}
+			else if (value.typeString().equals("list")) {
+				out.writeByte(T_LIST);
+				out.writeInt(value.list().size());
+				for (RödaValue item : value.list())
+					write(out, item);
+			}
+			else if (value.typeString().equals("map")) {
+				out.writeByte(T_MAP);
+				out.writeInt(value.map().size());
+				for (Map.Entry<String, RödaValue> entry : value.map().entrySet()) {
+					writeString(out, entry.getKey());
+					write(out, entry.getValue());
+				}
+			}
+			else error("sort: can't write a value of type " + value.typeString()
+					+ " to disk, increase the memory limit");
+		} catch (IOException e) {
+			error(e);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static RödaValue read(DataInputStream in, int tag) throws IOException {
+		switch (tag) {
+		case T_STRING:
+			return RödaString.of(readString(in));
+		case T_INTEGER:
+			return RödaInteger.of(in.readLong());
+		case T_FLOATING:
+			return RödaFloating.of(in.readDouble());
+		case T_BOOLEAN:
+			return RödaBoolean.of(in.readBoolean());
+		case T_LIST: {
+			int size = in.readInt();
+			List<RödaValue> list = new ArrayList<>(size);
+			for (int i = 0; i < size; i++)
+				list.add(read(in, in.readByte()));
+			return RödaList.of(list);
+		}
+		case T_MAP: {
+			int size = in.readInt();
+			Map<String, RödaValue> map = new HashMap<>();
+			for (int i = 0; i < size; i++) {
+				String key = readString(in);
+				map.put(key, read(in, in.readByte()));
+			}
+			return RödaMap.of(map);
+		}
+		default:
+			throw new IOException("corrupted sort run");
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -7,9 +7,11 @@ import static org.kaivos.röda.RödaValue.STRING;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import org.kaivos.röda.Interpreter;
+import org.kaivos.röda.PatternCache;
 import org.kaivos.röda.RödaStream;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.Interpreter.RödaScope;
@@ -40,23 +42,37 @@ public final class FilterPopulator {
 		return retval;
 	}
 
+	private static Pattern[] compilePatterns(List<RödaValue> args) {
+		Pattern[] patterns = new Pattern[args.size()];
+		for (int i = 0; i < patterns.length; i++) patterns[i] = PatternCache.compile(args.get(i).str());
+		return patterns;
+	}
+
+	private static void grep(Pattern[] patterns, RödaValue val, RödaStream out) {
+		for (Pattern p : patterns) {
+			if (p.matcher(val.str()).matches()) {
+				out.push(val);
+			}
+		}
+	}
+
 	public static void populateFilterAndGrep(Interpreter I, RödaScope S) {
 		S.setLocal("filter", RödaNativeFunction.of("filter", (typeargs, args, kwargs, scope, in, out) -> {
 			in.forAll(val -> {
 				if (evalCond(I, args.get(0), val)) out.push(val);
 			});
-		}, Arrays.asList(new Parameter("cond", false, FUNCTION)), false));
+		}, Arrays.asList(new Parameter("cond", false, FUNCTION)), false)
+				.withStage((typeargs, args, kwargs, scope) -> (val, out) -> {
+					if (evalCond(I, args.get(0), val)) out.push(val);
+				}));
 		
 		S.setLocal("grep", RödaNativeFunction.of("grep", (typeargs, args, kwargs, scope, in, out) -> {
-			Pattern[] patterns = new Pattern[args.size()];
-			for (int i = 0; i < patterns.length; i++) patterns[i] = Pattern.compile(args.get(i).str());
-			in.forAll(val -> {
-				for (Pattern p : patterns) {
-					if (p.matcher(val.str()).matches()) {
-						out.push(val);
-					}
-				}
-			});
-		}, Arrays.asList(new Parameter("patterns", false, STRING)), true));
+			Pattern[] patterns = compilePatterns(args);
+			in.forAll(val -> grep(patterns, val, out));
+		}, Arrays.asList(new Parameter("patterns", false, STRING)), true)
+				.withStage((typeargs, args, kwargs, scope) -> {
+					Pattern[] patterns = compilePatterns(args);
+					return (val, out) -> grep(patterns, val, out);
+				}));
 	}
 }
@@ -11,9 +11,12 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.RödaStream;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Function.Parameter;
 import org.kaivos.röda.type.RödaNativeFunction;
+import org.kaivos.röda.type.RödaNativeFunction.NativeStage;
+import org.kaivos.röda.type.RödaNativeFunction.NativeStageFactory;
 
 public final class HeadAndTailPopulator {
 
@@ -21,24 +24,34 @@ public final class HeadAndTailPopulator {
 	}
 
 	public static void populateHeadAndTail(RödaScope S) {
-		S.setLocal("head", RödaNativeFunction.of("head", (typeargs, args, kwargs, scope, in, out) -> {
+		NativeStageFactory head = (typeargs, args, kwargs, scope) -> {
 			if (args.size() > 1)
 				argumentOverflow("head", 1, args.size());
-			if (args.size() == 0) {
-				RödaValue input = in.pull();
-				if (input == null)
-					emptyStream("head: input stream is closed");
-				out.push(input);
-			} else {
-				long num = args.get(0).integer();
-				for (int i = 0; i < num; i++) {
-					RödaValue input = in.pull();
-					if (input == null)
+			long num = args.size() == 0 ? 1 : args.get(0).integer();
+			return new NativeStage() {
+				long count = 0;
+
+				@Override
+				public void push(RödaValue value, RödaStream out) {
+					count++;
+					out.push(value);
+				}
+
+				@Override
+				public void end(RödaStream out) {
+					if (count < num)
 						emptyStream("head: input stream is closed");
-					out.push(input);
 				}
-			}
-		}, Arrays.asList(new Parameter("number", false, INTEGER)), true));
+
+				@Override
+				public boolean done() {
+					return count >= num;
+				}
+			};
+		};
+		S.setLocal("head", RödaNativeFunction.of("head", (typeargs, args, kwargs, scope, in, out) -> {
+			NativeStage.run(head.make(typeargs, args, kwargs, scope), in, out);
+		}, Arrays.asList(new Parameter("number", false, INTEGER)), true).withStage(head));
 
 		S.setLocal("tail", RödaNativeFunction.of("tail", (typeargs, args, kwargs, scope, in, out) -> {
 			if (args.size() > 1)
@@ -89,13 +102,13 @@ public final class HeadAndTailPopulator {
 		}, Arrays.asList(new Parameter("list", false, LIST)), true));
 
 		S.setLocal("addHead", RödaNativeFunction.of("addHead", (typeargs, args, kwargs, scope, in, out) -> {
-			args.forEach(out::push);
+			out.pushAll(args);
 			in.forAll(out::push);
 		}, Arrays.asList(new Parameter("values", false)), true));
 
 		S.setLocal("addTail", RödaNativeFunction.of("addTail", (typeargs, args, kwargs, scope, in, out) -> {
 			in.forAll(out::push);
-			args.forEach(out::push);
+			out.pushAll(args);
 		}, Arrays.asList(new Parameter("values", false)), true));
 
 		S.setLocal("join", RödaNativeFunction.of("join", (typeargs, args, kwargs, scope, in, out) -> {
@@ -12,6 +12,7 @@ public final class IdentityPopulator {
 	public static void populateIdentity(RödaScope S) {
 		S.setLocal("identity", RödaNativeFunction.of("identity", (typeargs, args, kwargs, scope, in, out) -> {
 			in.forAll(out::push);
-		}, Collections.emptyList(), false));
+		}, Collections.emptyList(), false)
+				.withStage((typeargs, args, kwargs, scope) -> (value, out) -> out.push(value)));
 	}
 }
@@ -1,19 +1,33 @@
 package org.kaivos.röda.commands;
 
-import static java.util.stream.Collectors.toList;
 import static org.kaivos.röda.Interpreter.argumentOverflow;
 import static org.kaivos.röda.Interpreter.checkString;
+import static org.kaivos.röda.Interpreter.error;
+import static org.kaivos.röda.Interpreter.illegalArguments;
+import static org.kaivos.röda.Interpreter.typeMismatch;
+import static org.kaivos.röda.RödaValue.BOOLEAN;
+import static org.kaivos.röda.RödaValue.STRING;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
+import org.kaivos.röda.IOUtils;
+import org.kaivos.röda.Interpreter;
 import org.kaivos.röda.Interpreter.RödaScope;
-import org.kaivos.röda.JSON;
-import org.kaivos.röda.JSON.JSONDouble;
-import org.kaivos.röda.JSON.JSONElement;
-import org.kaivos.röda.JSON.JSONInteger;
-import org.kaivos.röda.JSON.JSONList;
-import org.kaivos.röda.JSON.JSONMap;
-import org.kaivos.röda.JSON.JSONString;
+import org.kaivos.röda.JSONReader;
+import org.kaivos.röda.JSONReader.Event;
+import org.kaivos.röda.JSONReader.JSONException;
+import org.kaivos.röda.JSONWriter;
 import org.kaivos.röda.runtime.Function.Parameter;
 import org.kaivos.röda.RödaStream;
 import org.kaivos.röda.RödaValue;
@@ -26,48 +40,135 @@ import org.kaivos.röda.type.RödaString;
 public final class JsonPopulator {
 
 	private JsonPopulator() {}
-	
-	private static void handle(RödaStream out, String code) {
-		JSONElement root = JSON.parseJSON(code);
-		// rekursiivinen ulostulo
-		// apuluokka rekursion mahdollistamiseksi
-		class R<I> { I i; }
-		R<java.util.function.Function<JSONElement, RödaValue>>
-		makeRöda = new R<>();
-		makeRöda.i = json -> {
-			RödaValue elementName = RödaString.of(json.getElementName());
-			RödaValue value;
-			if (json instanceof JSONInteger) {
-				value = RödaInteger.of(((JSONInteger) json).getValue());
-			}
-			else if (json instanceof JSONDouble) {
-				value = RödaFloating.of(((JSONDouble) json).getValue());
-			}
-			else if (json instanceof JSONString) {
-				value = RödaString.of(((JSONString) json).getValue());
-			}
-			else if (json instanceof JSONList) {
-				value = RödaList.of(((JSONList) json).getElements()
-						      .stream()
-						      .map(j -> makeRöda.i.apply(j))
-						      .collect(toList()));
+
+	private static final RödaValue LIST = RödaString.of("LIST"), MAP = RödaString.of("MAP"),
+			STRING_ELEMENT = RödaString.of("STRING"), NUMBER = RödaString.of("NUMBER"),
+			BOOLEAN_ELEMENT = RödaString.of("BOOLEAN"), NULL = RödaString.of("NULL"),
+			TRUE_TEXT = RödaString.of("true"), FALSE_TEXT = RödaString.of("false"), NULL_TEXT = RödaString.of("null");
+
+	/* Luo tapahtumasta elementin [nimi, arvo], listat ja kartat luetaan loppuun asti */
+	private static RödaValue readElement(JSONReader reader, Event event) {
+		switch (event) {
+		case START_LIST: {
+			List<RödaValue> elements = new ArrayList<>();
+			while ((event = reader.next()) != Event.END_LIST)
+				elements.add(readElement(reader, event));
+			return RödaList.of(LIST, RödaList.of(elements));
+		}
+		case START_MAP: {
+			List<RödaValue> entries = new ArrayList<>();
+			while ((event = reader.next()) != Event.END_MAP) {
+				RödaValue key = RödaString.of((String) reader.key());
+				entries.add(RödaList.of(key, readElement(reader, event)));
 			}
-			else if (json instanceof JSONMap) {
-				value = RödaList.of(((JSONMap) json).getElements().entrySet()
-						      .stream()
-						      .map(e -> RödaList.of(RödaString.of(e.getKey().getKey()),
-									      makeRöda.i.apply(e.getValue())))
-						      .collect(toList()));
+			return RödaList.of(MAP, RödaList.of(entries));
+		}
+		default:
+			return scalar(reader, event);
+		}
+	}
+
+	private static RödaValue scalar(JSONReader reader, Event event) {
+		switch (event) {
+		case STRING: return RödaList.of(STRING_ELEMENT, RödaString.of(reader.string()));
+		case INTEGER: return RödaList.of(NUMBER, RödaInteger.of(reader.integer()));
+		case DOUBLE: return RödaList.of(NUMBER, RödaFloating.of(reader.floating()));
+		case TRUE: return RödaList.of(BOOLEAN_ELEMENT, TRUE_TEXT);
+		case FALSE: return RödaList.of(BOOLEAN_ELEMENT, FALSE_TEXT);
+		case NULL: return RödaList.of(NULL, NULL_TEXT);
+		case END_LIST: return RödaList.of(LIST, RödaList.empty());
+		case END_MAP: return RödaList.of(MAP, RödaList.empty());
+		default:
+			throw new IllegalArgumentException(event.name());
+		}
+	}
+
+	private static RödaValue path(JSONReader reader, boolean ndjson) {
+		List<RödaValue> path = new ArrayList<>();
+		if (ndjson) path.add(RödaInteger.of(reader.document()));
+		for (Object key : reader.path())
+			path.add(key instanceof String ? RödaString.of((String) key) : RödaInteger.of((Long) key));
+		return RödaList.of(path);
+	}
+
+	private static void handle(RödaStream out, String code) {
+		JSONReader reader = new JSONReader(new StringReader(code));
+		try {
+			if (!reader.hasNext()) error("json: empty document");
+			out.push(readElement(reader, reader.next()));
+			if (reader.hasNext()) error("json: unexpected characters after the document");
+		} catch (JSONException e) {
+			error("json: " + e.getMessage());
+		}
+	}
+
+	/* Lähettää arvon kustakin merkkijonosta, numerosta, vakiosta ja tyhjästä listasta tai kartasta */
+	private static void handleEvents(RödaStream out, Reader input, boolean ndjson) {
+		JSONReader reader = new JSONReader(input, ndjson);
+		try {
+			if (!ndjson && !reader.hasNext()) error("jsonEvents: empty document");
+			while (reader.hasNext()) {
+				if (!ndjson && reader.document() >= 0)
+					error("jsonEvents: unexpected characters after the document");
+				RödaValue emptyPath = null;
+				do {
+					Event event = reader.next();
+					switch (event) {
+					case START_LIST:
+					case START_MAP:
+						// listan tai kartan polku lähetetään vain, jos se on tyhjä
+						emptyPath = path(reader, ndjson);
+						continue;
+					case END_LIST:
+					case END_MAP:
+						if (emptyPath != null) out.push(RödaList.of(emptyPath, scalar(reader, event)));
+						break;
+					default:
+						out.push(RödaList.of(path(reader, ndjson), scalar(reader, event)));
+					}
+					emptyPath = null;
+				} while (reader.depth() > 0);
 			}
-			else {
-				value = RödaString.of(json.toString());
+		} catch (JSONException e) {
+			error("jsonEvents: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reader that reads the strings pulled from a stream, separated by newlines.
+	 */
+	private static final class StreamReader extends Reader {
+		private final RödaStream in;
+		private String chunk = "";
+		private int index = 0;
+		private boolean first = true;
+
+		StreamReader(RödaStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) {
+			if (index == chunk.length()) {
+				RödaValue value = in.pull();
+				if (value == null) return -1;
+				checkString("jsonEvents", value);
+				// merkkijonot ovat rivejä, joten niiden väliin lisätään rivinvaihto
+				chunk = first ? value.str() : "\n" + value.str();
+				index = 0;
+				first = false;
 			}
-			return RödaList.of(elementName, value);
-		};
-		out.push(makeRöda.i.apply(root));
+			int n = Math.min(length, chunk.length() - index);
+			chunk.getChars(index, index + n, buffer, offset);
+			index += n;
+			return n;
+		}
+
+		@Override
+		public void close() {}
 	}
 
-	public static void populateJson(RödaScope S) {
+	public static void populateJson(Interpreter I, RödaScope S) {
 		S.setLocal("json", RödaNativeFunction.of("json", (typeargs, args, kwargs, scope, in, out) -> {
 					if (args.size() > 1) argumentOverflow("json", 1, args.size());
 					else if (args.size() == 1) {
@@ -85,5 +186,56 @@ public final class JsonPopulator {
 						}
 					}
 				}, Arrays.asList(new Parameter("flags_and_code", false)), true));
+
+		S.setLocal("jsonEvents", RödaNativeFunction.of("jsonEvents", (typeargs, args, kwargs, scope, in, out) -> {
+			boolean ndjson = false;
+			for (Map.Entry<String, RödaValue> kwarg : kwargs.entrySet()) {
+				RödaValue value = kwarg.getValue();
+				switch (kwarg.getKey()) {
+				case "ndjson":
+					if (!value.is(BOOLEAN))
+						typeMismatch("jsonEvents: 'ndjson' must be a boolean, got " + value.typeString());
+					ndjson = value.bool();
+					break;
+				default:
+					illegalArguments("jsonEvents: unknown keyword argument '" + kwarg.getKey() + "'");
+				}
+			}
+			if (args.isEmpty()) {
+				handleEvents(out, new StreamReader(in), ndjson);
+				return;
+			}
+			for (RödaValue value : args) {
+				File file = IOUtils.getMaybeRelativeFile(I.currentDir, value.str());
+				try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+					handleEvents(out, reader, ndjson);
+				} catch (IOException e) {
+					error(e);
+				}
+			}
+		}, Arrays.asList(new Parameter("files", false, STRING)), true, Collections.emptyList(), true));
+
+		S.setLocal("toJson", RödaNativeFunction.of("toJson", (typeargs, args, kwargs, scope, in, out) -> {
+			boolean pretty = false;
+			for (Map.Entry<String, RödaValue> kwarg : kwargs.entrySet()) {
+				RödaValue value = kwarg.getValue();
+				switch (kwarg.getKey()) {
+				case "pretty":
+					if (!value.is(BOOLEAN))
+						typeMismatch("toJson: 'pretty' must be a boolean, got " + value.typeString());
+					pretty = value.bool();
+					break;
+				default:
+					illegalArguments("toJson: unknown keyword argument '" + kwarg.getKey() + "'");
+				}
+			}
+			// suuret arvot lähetetään useana merkkijonona, kukin arvo päättyy omaan merkkijonoonsa
+			JSONWriter writer = new JSONWriter(chunk -> out.push(RödaString.of(chunk)), pretty);
+			if (args.isEmpty()) {
+				RödaValue value;
+				while ((value = in.pull()) != null) writer.write(value);
+			}
+			else for (RödaValue value : args) writer.write(value);
+		}, Arrays.asList(new Parameter("values", false)), true, Collections.emptyList(), true));
 	}
 }
@@ -6,11 +6,13 @@ import static org.kaivos.röda.Interpreter.error;
 import static org.kaivos.röda.RödaValue.STRING;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.PatternCache;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Function.Parameter;
 import org.kaivos.röda.type.RödaList;
@@ -26,17 +28,18 @@ public final class MatchPopulator {
 			if (args.size() < 1)
 				argumentUnderflow("match", 1, 0);
 			String regex = args.get(0).str();
-			args.remove(0);
+			// argumenttilistaa ei muokata, koska kutsupino viittaa siihen
+			List<RödaValue> strings = args.subList(1, args.size());
 			Pattern pattern;
 			try {
-				pattern = Pattern.compile(regex);
+				pattern = PatternCache.compile(regex);
 			} catch (PatternSyntaxException e) {
 				error("match: pattern syntax exception: " + e.getMessage());
 				return;
 			}
 
-			if (args.size() > 0) {
-				for (RödaValue arg : args) {
+			if (strings.size() > 0) {
+				for (RödaValue arg : strings) {
 					Matcher matcher = pattern.matcher(arg.str());
 					if (matcher.matches()) {
 						RödaValue[] results = new RödaValue[matcher.groupCount() + 1];
@@ -0,0 +1,225 @@
+package org.kaivos.röda.commands;
+
+import static org.kaivos.röda.Interpreter.error;
+import static org.kaivos.röda.Interpreter.illegalArguments;
+import static org.kaivos.röda.Interpreter.typeMismatch;
+import static org.kaivos.röda.RödaValue.BOOLEAN;
+import static org.kaivos.röda.RödaValue.FUNCTION;
+import static org.kaivos.röda.RödaValue.INTEGER;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.kaivos.röda.Interpreter;
+import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.RödaStream;
+import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.Scheduler;
+import org.kaivos.röda.runtime.Function.Parameter;
+import org.kaivos.röda.type.RödaNativeFunction;
+
+/**
+ * ParallelPopulator defines <code>parallelMap</code> and
+ * <code>parallelFilter</code>, which call a function for each value of the
+ * input stream using several workers at the same time.
+ *
+ * The number of workers is given with the <code>workers</code> argument and
+ * defaults to the number of processors. Each worker takes values from a shared
+ * queue, a few at a time when the queue is long. Only a bounded number of values
+ * is read ahead of the results that have been pushed, so the input is read only
+ * as fast as it is processed. By default the results are pushed in the
+ * order of the input; with <code>ordered=FALSE</code> they are pushed as soon as
+ * they are ready.
+ */
+public final class ParallelPopulator {
+
+	private ParallelPopulator() {}
+
+	private static class Task {
+		final RödaValue value;
+		List<RödaValue> results;
+		RuntimeException error;
+		boolean done = false;
+
+		Task(RödaValue value) {
+			this.value = value;
+		}
+	}
+
+	private static final int MAX_WORKERS = 1024, BATCH_SIZE = 8;
+
+	private static interface Emitter {
+		void emit(Task task);
+	}
+
+	private static List<RödaValue> call(Interpreter I, String name, RödaValue function, RödaValue val) {
+		RödaStream in = RödaStream.makeEmptyStream();
+		RödaStream out = RödaStream.makeStream();
+		I.exec("<" + name + ">", 0,
+				function,
+				Collections.emptyList(), Arrays.asList(val), Collections.emptyMap(),
+				new RödaScope(I.G), in, out);
+		out.finish();
+		List<RödaValue> results = new ArrayList<>();
+		while (true) {
+			RödaValue result = out.pull();
+			if (result == null) break;
+			results.add(result);
+		}
+		return results;
+	}
+
+	private static <T> T take(LinkedBlockingQueue<T> queue) {
+		class Taker implements ForkJoinPool.ManagedBlocker {
+			T item;
+
+			@Override
+			public boolean isReleasable() {
+				return item != null || (item = queue.poll()) != null;
+			}
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (item == null) item = queue.take();
+				return true;
+			}
+		}
+		Taker taker = new Taker();
+		try {
+			Scheduler.block(taker);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error("interrupted");
+		}
+		return taker.item;
+	}
+
+	private static void run(Interpreter I, String name, RödaValue function, Map<String, RödaValue> kwargs,
+			RödaStream in, Emitter emitter) {
+		int workers = Runtime.getRuntime().availableProcessors();
+		boolean ordered = true;
+		for (Map.Entry<String, RödaValue> kwarg : kwargs.entrySet()) {
+			RödaValue value = kwarg.getValue();
+			switch (kwarg.getKey()) {
+			case "workers":
+				if (!value.is(INTEGER))
+					typeMismatch(name + ": 'workers' must be an integer, got " + value.typeString());
+				if (value.integer() < 1 || value.integer() > MAX_WORKERS)
+					illegalArguments(name + ": illegal number of workers: " + value.integer());
+				workers = (int) value.integer();
+				break;
+			case "ordered":
+				if (!value.is(BOOLEAN))
+					typeMismatch(name + ": 'ordered' must be a boolean, got " + value.typeString());
+				ordered = value.bool();
+				break;
+			default:
+				illegalArguments(name + ": unknown keyword argument '" + kwarg.getKey() + "'");
+			}
+		}
+
+		/* Työntekijät lukevat arvoja jonosta, kunnes ne saavat lopetusmerkin. Kutsuva säie
+		 * lukee syötettä ja lähettää tulokset, ja pitää keskeneräisten arvojen määrän rajattuna. */
+		LinkedBlockingQueue<Task> work = new LinkedBlockingQueue<>();
+		LinkedBlockingQueue<Task> finished = new LinkedBlockingQueue<>();
+		Task stop = new Task(null);
+		int workerCount = workers;
+		for (int i = 0; i < workers; i++) {
+			Interpreter.scheduler.execute(() -> {
+				List<Task> batch = new ArrayList<>();
+				while (true) {
+					batch.add(take(work));
+					// otetaan kerralla useampi arvo, jotta säikeitä herätetään harvemmin
+					work.drainTo(batch, Math.min(BATCH_SIZE-1, work.size()/workerCount));
+					for (Task task : batch) {
+						if (task == stop) {
+							// lopetusmerkki jätetään jonoon muille työntekijöille
+							work.add(stop);
+							return;
+						}
+						try {
+							task.results = call(I, name, function, task.value);
+						} catch (RuntimeException e) {
+							task.error = e;
+						}
+						finished.add(task);
+					}
+					batch.clear();
+				}
+			});
+		}
+
+		ArrayDeque<Task> pending = new ArrayDeque<>();
+		int window = workers*BATCH_SIZE*2;
+		int inFlight = 0;
+		boolean inputFinished = false;
+		try {
+			while (!inputFinished || inFlight > 0) {
+				Task task = null;
+				// järjestetyssä tilassa myös valmiit mutta vielä lähettämättömät arvot vievät tilaa
+				int held = ordered ? pending.size() : inFlight;
+				if (inputFinished || held >= window) task = take(finished);
+				else {
+					task = finished.poll();
+					if (task == null) {
+						RödaValue val = in.pull();
+						if (val == null) {
+							inputFinished = true;
+							continue;
+						}
+						Task newTask = new Task(val);
+						if (ordered) pending.add(newTask);
+						inFlight++;
+						work.add(newTask);
+						continue;
+					}
+				}
+				inFlight--;
+				task.done = true;
+				if (!ordered) emitter.emit(task);
+				// järjestetyssä tilassa tulos lähetetään vasta, kun kaikki edelliset ovat valmiita
+				while (!pending.isEmpty() && pending.peek().done)
+					emitter.emit(pending.poll());
+			}
+		} finally {
+			// virheen sattuessa käsittelemättömät arvot hylätään
+			work.clear();
+			work.add(stop);
+		}
+	}
+
+	private static List<RödaValue> results(Task task) {
+		if (task.error != null) throw task.error;
+		return task.results;
+	}
+
+	public static void populateParallelMapAndFilter(Interpreter I, RödaScope S) {
+		S.setLocal("parallelMap", RödaNativeFunction.of("parallelMap", (typeargs, args, kwargs, scope, in, out) -> {
+			run(I, "parallelMap", args.get(0), kwargs, in, task -> {
+				for (RödaValue result : results(task))
+					out.push(result);
+			});
+		}, Arrays.asList(new Parameter("function", false, FUNCTION)), false,
+				Collections.emptyList(), true));
+
+		S.setLocal("parallelFilter", RödaNativeFunction.of("parallelFilter", (typeargs, args, kwargs, scope, in, out) -> {
+			run(I, "parallelFilter", args.get(0), kwargs, in, task -> {
+				boolean retval = true;
+				for (RödaValue cval : results(task)) {
+					if (!cval.is(BOOLEAN))
+						typeMismatch("condition returned a value of type '" + cval.typeString()
+							+ "', expected boolean");
+					retval &= cval.bool();
+				}
+				if (retval) out.push(task.value);
+			});
+		}, Arrays.asList(new Parameter("cond", false, FUNCTION)), false,
+				Collections.emptyList(), true));
+	}
+}
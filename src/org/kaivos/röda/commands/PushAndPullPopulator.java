@@ -5,6 +5,7 @@ import static org.kaivos.röda.Interpreter.checkReference;
 import static org.kaivos.röda.Interpreter.emptyStream;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
@@ -19,13 +20,12 @@ public final class PushAndPullPopulator {
 	
 	private PushAndPullPopulator() {}
 	
-	private static void addPushingFunction(RödaScope S, String name, boolean isIn, BiConsumer<RödaStream, RödaValue> body) {
+	private static void addPushingFunction(RödaScope S, String name, boolean isIn,
+			BiConsumer<RödaStream, List<RödaValue>> body) {
 		S.setLocal(name, RödaNativeFunction.of(name, (typeargs, args, kwargs, scope, in, out) -> {
 			if (args.isEmpty())
 				argumentUnderflow(name, 1, 0);
-			for (RödaValue value : args) {
-				body.accept(isIn ? in : out, value);
-			}
+			body.accept(isIn ? in : out, args);
 		}, Arrays.asList(new Parameter("values", false)), true));
 	}
 
@@ -54,8 +54,8 @@ public final class PushAndPullPopulator {
 	}
 	
 	public static void populatePushAndPull(RödaScope S) {
-		addPushingFunction(S, "push", false, RödaStream::push);
-		addPushingFunction(S, "unpull", true, RödaStream::unpull);
+		addPushingFunction(S, "push", false, RödaStream::pushAll);
+		addPushingFunction(S, "unpull", true, (stream, values) -> values.forEach(stream::unpull));
 		
 		addPullingFunction(S, "pull", false, RödaStream::pull);
 		addPullingFunction(S, "tryPull", true, RödaStream::pull);
@@ -2,21 +2,29 @@ package org.kaivos.röda.commands;
 
 import static org.kaivos.röda.Interpreter.argumentUnderflow;
 import static org.kaivos.röda.Interpreter.error;
+import static org.kaivos.röda.Interpreter.illegalArguments;
+import static org.kaivos.röda.Interpreter.outOfBounds;
+import static org.kaivos.röda.RödaValue.INTEGER;
 import static org.kaivos.röda.RödaValue.STRING;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.util.Arrays;
-import java.util.stream.Stream;
 
 import org.kaivos.röda.IOUtils;
 import org.kaivos.röda.Interpreter;
+import org.kaivos.röda.MappedLineReader;
 import org.kaivos.röda.Parser;
 import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.RödaStream;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Function.Parameter;
+import org.kaivos.röda.type.RödaInteger;
+import org.kaivos.röda.type.RödaList;
 import org.kaivos.röda.type.RödaNativeFunction;
 import org.kaivos.röda.type.RödaString;
 
@@ -27,13 +35,30 @@ public final class ReadAndWritePopulator {
 			if (args.size() < 1) argumentUnderflow("readLines", 1, args.size());
 			long skip = kwargs.get("skip").integer();
 			long limit = kwargs.get("limit").integer();
+			long offset = kwargs.get("offset").integer();
+			long end = kwargs.get("end").integer();
+			if (offset < 0) outOfBounds("readLines: negative offset: " + offset);
 			for (RödaValue value : args) {
 				String filename = value.str();
 				File file = IOUtils.getMaybeRelativeFile(I.currentDir, filename);
-				try {
-					Stream<String> stream = Files.lines(file.toPath()).skip(skip);
-					if (limit >= 0) stream = stream.limit(limit);
-					stream.map(RödaString::of).forEach(out::push);
+				if (!MappedLineReader.isMappable(file)) {
+					// putkia ja /proc-tiedostoja ei voi kuvata muistiin, joten ne luetaan virtana
+					if (offset != 0 || end >= 0)
+						illegalArguments("readLines: offset and end need a regular file: " + filename);
+					try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+						readLines(reader, skip, limit, out);
+					} catch (IOException e) {
+						error(e);
+					}
+					continue;
+				}
+				try (MappedLineReader reader = new MappedLineReader(file)) {
+					reader.seek(offset);
+					reader.skipLines(skip);
+					String line;
+					for (long i = 0; i != limit && (line = reader.readLine(end)) != null; i++) {
+						out.push(RödaString.of(line));
+					}
 				} catch (IOException e) {
 					error(e);
 				}
@@ -41,8 +66,30 @@ public final class ReadAndWritePopulator {
 		}, Arrays.asList(new Parameter("files", false, STRING)), true,
 				Arrays.asList(
 						new Parameter("skip", false, Parser.expressionInt("<read and write populator>", 0, 0)),
-						new Parameter("limit", false, Parser.expressionInt("<read and write populator>", 0, -1))
+						new Parameter("limit", false, Parser.expressionInt("<read and write populator>", 0, -1)),
+						new Parameter("offset", false, Parser.expressionInt("<read and write populator>", 0, 0)),
+						new Parameter("end", false, Parser.expressionInt("<read and write populator>", 0, -1))
 				)));
+
+		S.setLocal("lineRanges", RödaNativeFunction.of("lineRanges", (typeargs, args, kwargs, scope, in, out) -> {
+			long parts = args.get(1).integer();
+			if (parts < 1 || parts > Integer.MAX_VALUE)
+				outOfBounds("lineRanges: illegal number of parts: " + parts);
+			File file = IOUtils.getMaybeRelativeFile(I.currentDir, args.get(0).str());
+			if (!MappedLineReader.isMappable(file)) {
+				// koko tiedosto on yksi väli, jonka readLines lukee virtana
+				if (!file.exists()) error(new NoSuchFileException(file.getPath()));
+				out.push(RödaList.of(RödaInteger.of(0), RödaInteger.of(-1)));
+				return;
+			}
+			try (MappedLineReader reader = new MappedLineReader(file)) {
+				for (long[] range : reader.ranges((int) parts)) {
+					out.push(RödaList.of(RödaInteger.of(range[0]), RödaInteger.of(range[1])));
+				}
+			} catch (IOException e) {
+				error(e);
+			}
+		}, Arrays.asList(new Parameter("file", false, STRING), new Parameter("parts", false, INTEGER)), false));
 		
 		S.setLocal("writeStrings", RödaNativeFunction.of("writeStrings", (typeargs, args, kwargs, scope, in, out) -> {
 			String filename = args.get(0).str();
@@ -59,4 +106,14 @@ public final class ReadAndWritePopulator {
 		}, Arrays.asList(new Parameter("file", false, STRING)), false));
 	}
 
+	private static void readLines(BufferedReader reader, long skip, long limit, RödaStream out) throws IOException {
+		for (long i = 0; i < skip; i++) {
+			if (reader.readLine() == null) return;
+		}
+		String line;
+		for (long i = 0; i != limit && (line = reader.readLine()) != null; i++) {
+			out.push(RödaString.of(line));
+		}
+	}
+
 }
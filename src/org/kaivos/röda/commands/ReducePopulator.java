@@ -14,18 +14,55 @@ import java.util.Collections;
 import java.util.List;
 
 import org.kaivos.röda.Interpreter.RödaScope;
-import org.kaivos.röda.Parser.ExpressionTree.CType;
+import org.kaivos.röda.RödaStream;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Function.Parameter;
 import org.kaivos.röda.type.RödaFloating;
 import org.kaivos.röda.type.RödaInteger;
 import org.kaivos.röda.type.RödaList;
 import org.kaivos.röda.type.RödaNativeFunction;
+import org.kaivos.röda.type.RödaNativeFunction.NativeStage;
 import org.kaivos.röda.type.RödaString;
 
 public class ReducePopulator {
 
 	private ReducePopulator() {}
+
+	/* Laskee syötteen arvojen summan; ensimmäinen arvo määrää summan tyypin */
+	private static final class SumStage implements NativeStage {
+		private RödaValue first = null;
+		private long integer;
+		private double floating;
+		private List<RödaValue> list;
+
+		SumStage(RödaValue first) {
+			if (first != null) start(first);
+		}
+
+		private void start(RödaValue val) {
+			if (val.is(INTEGER)) integer = val.integer();
+			else if (val.is(FLOATING)) floating = val.floating();
+			else if (val.is(LIST)) list = new ArrayList<>(val.list());
+			else typeMismatch("sum: expected list, integer of floating, got " + val.typeString());
+			first = val;
+		}
+
+		@Override
+		public void push(RödaValue val, RödaStream out) {
+			if (first == null) start(val);
+			else if (list != null) list.add(val);
+			else if (first.is(INTEGER)) integer += val.integer();
+			else floating += val.floating();
+		}
+
+		@Override
+		public void end(RödaStream out) {
+			if (first == null) out.push(RödaInteger.of(0));
+			else if (list != null) out.push(RödaList.of(list));
+			else if (first.is(INTEGER)) out.push(RödaInteger.of(integer));
+			else out.push(RödaFloating.of(floating));
+		}
+	}
 	
 	public static void addMinMaxFunction(RödaScope S, String name, boolean min) {
 		S.setLocal(name, RödaNativeFunction.of(name, (typeargs, args, kwargs, scope, in, out) -> {
@@ -41,7 +78,7 @@ public class ReducePopulator {
 					if (val2 == null) break;
 					RödaValue a = min ? val2 : val;
 					RödaValue b = min ? val : val2;
-					if (a.callOperator(CType.LT, b).bool()) val = val2;
+					if (ValueOrder.lessThan(a, b)) val = val2;
 				}
 				out.push(val);
 			}
@@ -56,10 +93,21 @@ public class ReducePopulator {
 						continue;
 					}
 					RödaValue val = first != null ? first : list.list().get(0);
+					if (val.is(INTEGER) && list instanceof RödaList && ((RödaList) list).containsOnlyIntegers()) {
+						// kokonaislukulistan alkioita ei tarvitse muuttaa arvoiksi
+						RödaList integers = (RödaList) list;
+						long extreme = val.integer();
+						for (int i = first != null ? 0 : 1; i < integers.list().size(); i++) {
+							long number = integers.integerAt(i);
+							if (min ? number < extreme : extreme < number) extreme = number;
+						}
+						out.push(extreme == val.integer() ? val : RödaInteger.of(extreme));
+						continue;
+					}
 					for (int i = first != null ? 0 : 1; i < list.list().size(); i++) {
 						RödaValue a = min ? list.list().get(i) : val;
 						RödaValue b = min ? val : list.list().get(i);
-						if (a.callOperator(CType.LT, b).bool()) val = list.list().get(i);
+						if (ValueOrder.lessThan(a, b)) val = list.list().get(i);
 					}
 					out.push(val);
 				}
@@ -85,39 +133,7 @@ public class ReducePopulator {
 		S.setLocal("sum", RödaNativeFunction.of("sum", (typeargs, args, kwargs, scope, in, out) -> {
 			RödaValue first = kwargs.get("fst");
 			if (args.size() == 0) {
-				RödaValue val = first != null ? first : in.pull();
-				if (val == null) {
-					out.push(RödaInteger.of(0));
-					return;
-				}
-				if (val.is(INTEGER)) {
-					long sum = val.integer();
-					while (true) {
-						RödaValue val2 = in.pull();
-						if (val2 == null) break;
-						sum += val2.integer();
-					}
-					out.push(RödaInteger.of(sum));
-				}
-				else if (val.is(FLOATING)) {
-					double sum = val.floating();
-					while (true) {
-						RödaValue val2 = in.pull();
-						if (val2 == null) break;
-						sum += val2.floating();
-					}
-					out.push(RödaFloating.of(sum));
-				}
-				else if (val.is(LIST)) {
-					List<RödaValue> sum = new ArrayList<>(val.list());
-					while (true) {
-						RödaValue val2 = in.pull();
-						if (val2 == null) break;
-						sum.add(val2);
-					}
-					out.push(RödaList.of(sum));
-				}
-				else typeMismatch("sum: expected list, integer of floating, got " + val.typeString());
+				NativeStage.run(new SumStage(first), in, out);
 			}
 			else {
 				for (RödaValue list : args) {
@@ -127,7 +143,21 @@ public class ReducePopulator {
 						continue;
 					}
 					RödaValue val = first != null ? first : list.list().get(0);
-					if (val.is(INTEGER)) {
+					if (val.is(INTEGER) && list instanceof RödaList && ((RödaList) list).containsOnlyIntegers()) {
+						RödaList integers = (RödaList) list;
+						long sum = val.integer();
+						for (int i = first != null ? 0 : 1; i < integers.list().size(); i++)
+							sum += integers.integerAt(i);
+						out.push(RödaInteger.of(sum));
+					}
+					else if (val.is(FLOATING) && list instanceof RödaList && ((RödaList) list).containsOnlyFloatings()) {
+						RödaList floatings = (RödaList) list;
+						double sum = val.floating();
+						for (int i = first != null ? 0 : 1; i < floatings.list().size(); i++)
+							sum += floatings.floatingAt(i);
+						out.push(RödaFloating.of(sum));
+					}
+					else if (val.is(INTEGER)) {
 						long sum = val.integer();
 						for (int i = first != null ? 0 : 1; i < list.list().size(); i++)
 							sum += list.list().get(i).integer();
@@ -148,7 +178,8 @@ public class ReducePopulator {
 					else typeMismatch("sum: expected list, integer or floating, got " + val.typeString());
 				}
 			}
-		}, Arrays.asList(new Parameter("values", false, LIST)), true, Collections.emptyList(), true));
+		}, Arrays.asList(new Parameter("values", false, LIST)), true, Collections.emptyList(), true)
+				.withStage((typeargs, args, kwargs, scope) -> args.isEmpty() ? new SumStage(kwargs.get("fst")) : null));
 		S.setLocal("product", RödaNativeFunction.of("product", (typeargs, args, kwargs, scope, in, out) -> {
 			RödaValue first = kwargs.get("fst");
 			if (args.size() == 0) {
@@ -0,0 +1,28 @@
+package org.kaivos.röda.commands;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.PatternCache;
+import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.type.RödaInteger;
+import org.kaivos.röda.type.RödaMap;
+import org.kaivos.röda.type.RödaNativeFunction;
+
+public final class RegexCacheStatsPopulator {
+
+	private RegexCacheStatsPopulator() {}
+
+	public static void populateRegexCacheStats(RödaScope S) {
+		S.setLocal("regexCacheStats", RödaNativeFunction.of("regexCacheStats", (typeargs, args, kwargs, scope, in, out) -> {
+			Map<String, RödaValue> stats = new HashMap<>();
+			stats.put("hits", RödaInteger.of(PatternCache.hits()));
+			stats.put("misses", RödaInteger.of(PatternCache.misses()));
+			stats.put("size", RödaInteger.of(PatternCache.size()));
+			stats.put("capacity", RödaInteger.of(PatternCache.CAPACITY));
+			out.push(RödaMap.of(stats));
+		}, Arrays.asList(), false));
+	}
+}
@@ -8,9 +8,11 @@ import java.util.Arrays;
 import java.util.regex.PatternSyntaxException;
 
 import org.kaivos.röda.Interpreter.RödaScope;
-import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.PatternCache;
 import org.kaivos.röda.runtime.Function.Parameter;
 import org.kaivos.röda.type.RödaNativeFunction;
+import org.kaivos.röda.type.RödaNativeFunction.NativeStage;
+import org.kaivos.röda.type.RödaNativeFunction.NativeStageFactory;
 import org.kaivos.röda.type.RödaString;
 
 public final class ReplacePopulator {
@@ -18,25 +20,25 @@ public final class ReplacePopulator {
 	private ReplacePopulator() {}
 
 	public static void populateReplace(RödaScope S) {
-		S.setLocal("replace", RödaNativeFunction.of("replace", (typeargs, args, kwargs, scope, in, out) -> {
+		NativeStageFactory replace = (typeargs, args, kwargs, scope) -> {
 			if (args.size() % 2 != 0)
 				illegalArguments("invalid arguments for replace: even number required (got " + args.size() + ")");
-			try {
-				while (true) {
-					RödaValue input = in.pull();
-					if (input == null) break;
-
+			return (input, out) -> {
+				try {
 					String text = input.str();
 					for (int i = 0; i < args.size(); i += 2) {
 						String pattern = args.get(i).str();
 						String replacement = args.get(i + 1).str();
-						text = text.replaceAll(pattern, replacement);
+						text = PatternCache.compile(pattern).matcher(text).replaceAll(replacement);
 					}
 					out.push(RödaString.of(text));
+				} catch (PatternSyntaxException e) {
+					error("replace: pattern syntax exception: " + e.getMessage());
 				}
-			} catch (PatternSyntaxException e) {
-				error("replace: pattern syntax exception: " + e.getMessage());
-			}
-		}, Arrays.asList(new Parameter("patterns_and_replacements", false, STRING)), true));
+			};
+		};
+		S.setLocal("replace", RödaNativeFunction.of("replace", (typeargs, args, kwargs, scope, in, out) -> {
+			NativeStage.run(replace.make(typeargs, args, kwargs, scope), in, out);
+		}, Arrays.asList(new Parameter("patterns_and_replacements", false, STRING)), true).withStage(replace));
 	}
 }
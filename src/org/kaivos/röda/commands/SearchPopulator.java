@@ -9,6 +9,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.PatternCache;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Function.Parameter;
 import org.kaivos.röda.type.RödaNativeFunction;
@@ -29,7 +30,7 @@ public final class SearchPopulator {
 				String text = input.str();
 				for (RödaValue value : args) {
 					checkString("search", value);
-					Pattern pattern = Pattern.compile(value.str());
+					Pattern pattern = PatternCache.compile(value.str());
 					Matcher m = pattern.matcher(text);
 					while (m.find()) {
 						out.push(RödaString.of(m.group()));
@@ -5,9 +5,13 @@ import static org.kaivos.röda.Parser.expressionInt;
 import static org.kaivos.röda.RödaValue.BOOLEAN;
 import static org.kaivos.röda.RödaValue.INTEGER;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.RödaStream;
+import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Function.Parameter;
 import org.kaivos.röda.type.RödaInteger;
 import org.kaivos.röda.type.RödaNativeFunction;
@@ -22,17 +26,17 @@ public final class SeqPopulator {
 			long to = args.get(1).integer();
 			long step = kwargs.get("step").integer();
 			if (to < from && step > 0 || from < to && step < 0) step = -step;
-			if (step > 0) {
-				for (long i = from; i <= to; i += step)
-					out.push(RödaInteger.of(i));
-			}
-			else if (step < 0) {
-				for (long i = from; i >= to; i += step)
-					out.push(RödaInteger.of(i));
-			}
-			else {
-				outOfBounds("illegal use of seq: step must be non-zero");
+			if (step == 0) outOfBounds("illegal use of seq: step must be non-zero");
+			// luvut työnnetään erissä, jolloin putki lukitaan kerran kutakin erää kohden
+			List<RödaValue> batch = new ArrayList<>(RödaStream.BATCH_SIZE);
+			for (long i = from; step > 0 ? i <= to : i >= to; i += step) {
+				batch.add(RödaInteger.of(i));
+				if (batch.size() == RödaStream.BATCH_SIZE) {
+					out.pushAll(batch);
+					batch.clear();
+				}
 			}
+			out.pushAll(batch);
 		}, Arrays.asList(new Parameter("from", false, INTEGER), new Parameter("to", false, INTEGER)), false,
 				Arrays.asList(new Parameter("step", false, expressionInt("<seq populator>", 0, 1)))));
 		
@@ -10,14 +10,13 @@ import static org.kaivos.röda.RödaValue.BOOLEAN;
 import static org.kaivos.röda.RödaValue.INTEGER;
 import static org.kaivos.röda.RödaValue.LIST;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.List;
+import java.util.Comparator;
+import java.util.function.UnaryOperator;
 
 import org.kaivos.röda.Interpreter;
 import org.kaivos.röda.Interpreter.RödaScope;
-import org.kaivos.röda.Parser.ExpressionTree.CType;
 import org.kaivos.röda.RödaStream;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Function.Parameter;
@@ -76,34 +75,47 @@ public class SortPopulator {
 		S.setLocal("sort", RödaNativeFunction.of("sort", (typeargs, args, kwargs, scope, in, out) -> {
 			if (args.size() > 1)
 				argumentOverflow("head", 1, args.size());
-			List<RödaValue> list;
-			if (args.size() == 0) {
-				list = new ArrayList<>();
-				in.forAll(list::add);
-			} else {
-				list = new ArrayList<>(args.get(0).list());
-			}
 			if (kwargs.containsKey("key") && kwargs.containsKey("cmp")) {
 				illegalArguments("received both 'key' and 'cmp', only one should be provided");
 			}
+			boolean parallelKey = false;
+			if (kwargs.containsKey("parallel")) {
+				RödaValue parallel = kwargs.get("parallel");
+				if (!parallel.is(BOOLEAN))
+					typeMismatch("sort: 'parallel' must be a boolean, got " + parallel.typeString());
+				parallelKey = parallel.bool();
+			}
+			UnaryOperator<RödaValue> keyFunction = null;
+			Comparator<RödaValue> comparator = null;
 			if (kwargs.containsKey("key")) {
 				RödaValue key = kwargs.get("key");
-				list.sort((a, b) -> {
-					a = evalKey(I, key, a);
-					b = evalKey(I, key, b);
-					return a.callOperator(CType.LT, b).bool() ? -1 : a.strongEq(b) ? 0 : 1;
-				});
+				keyFunction = value -> evalKey(I, key, value);
 			}
 			else if (kwargs.containsKey("cmp")) {
 				RödaValue cmp = kwargs.get("cmp");
-				list.sort((a, b) -> {
+				comparator = (a, b) -> {
 					return evalCmp(I, cmp, a, b);
-				});
+				};
+			}
+			long memoryLimit = Runtime.getRuntime().maxMemory() / 4;
+			if (kwargs.containsKey("memory")) {
+				RödaValue memory = kwargs.get("memory");
+				if (!memory.is(INTEGER))
+					typeMismatch("sort: 'memory' must be an integer, got " + memory.typeString());
+				if (memory.integer() <= 0)
+					illegalArguments("sort: illegal memory limit: " + memory.integer());
+				memoryLimit = memory.integer();
 			}
-			else {
-				list.sort((a, b) -> a.callOperator(CType.LT, b).bool() ? -1 : a.strongEq(b) ? 0 : 1);
+			// lista on jo valmiiksi muistissa, joten sitä ei kannata kirjoittaa levylle
+			if (args.size() > 0) memoryLimit = Long.MAX_VALUE;
+			try (ExternalSorter sorter = new ExternalSorter(keyFunction, parallelKey, comparator, memoryLimit)) {
+				if (args.size() == 0) {
+					in.forAll(sorter::add);
+				} else {
+					args.get(0).list().forEach(sorter::add);
+				}
+				sorter.finish(out::push);
 			}
-			list.forEach(out::push);
 		}, Arrays.asList(new Parameter("number", false, LIST)), true,
 				Collections.emptyList(), true));
 	}
@@ -58,7 +58,15 @@ public final class SplitPopulator {
 				true,
 				Arrays.asList(
 						new Parameter("sep", false, Parser.expressionString("<split populator>", 0, " "))
-						)));
+						)).withStage((typeargs, args, kwargs, scope) -> {
+							// argumentteina annetut merkkijonot jaetaan lukematta syötettä
+							if (args.size() > 0) return null;
+							String separator = kwargs.get("sep").str();
+							return (value, out) -> {
+								checkString(name, value);
+								s.pushSeparation(value.str(), separator, out);
+							};
+						}));
 	}
 
 	public static void populateSplit(RödaScope S) {
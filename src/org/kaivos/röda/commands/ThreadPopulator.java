@@ -72,7 +72,7 @@ public final class ThreadPopulator {
 				if (p.started)
 					error("Thread has already been started");
 				p.started = true;
-				Interpreter.executor.execute(task);
+				Interpreter.scheduler.execute(task);
 			}, Collections.emptyList(), false));
 			threadObject.setField("finish", RödaNativeFunction.of("Thread.finish", (ra, a, k, s, i, o) -> {
 				checkArgs("Thread.finish", 0, a.size());
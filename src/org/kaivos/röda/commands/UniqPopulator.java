@@ -8,34 +8,49 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import org.kaivos.röda.Interpreter.RödaScope;
+import org.kaivos.röda.RödaStream;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.type.RödaInteger;
 import org.kaivos.röda.type.RödaNativeFunction;
+import org.kaivos.röda.type.RödaNativeFunction.NativeStage;
 
 public class UniqPopulator {
 
 	private UniqPopulator() {}
 	
-	private static class MutableInt { int i = 1; };
-	private static class MutableValue { RödaValue v = null; };
+	private static class UniqStage implements NativeStage {
+		private final boolean count;
+		private RödaValue previous = null;
+		private int i = 1;
+
+		UniqStage(boolean count) {
+			this.count = count;
+		}
+
+		@Override
+		public void push(RödaValue value, RödaStream out) {
+			if (previous == null || !value.strongEq(previous)){
+				if (count && previous != null) out.push(RödaInteger.of(i));
+				out.push(value);
+				i = 1;
+			}
+			else {
+				i++;
+			}
+			previous = value;
+		}
+
+		@Override
+		public void end(RödaStream out) {
+			if (count) out.push(RödaInteger.of(i));
+		}
+	}
 	
 	private static void addUniqFunction(RödaScope S, String name, boolean count) {
 		S.setLocal(name, RödaNativeFunction.of(name, (typeargs, args, kwargs, scope, in, out) -> {
-			MutableValue previous = new MutableValue();
-			MutableInt i = new MutableInt();
-			in.forAll(value -> {
-				if (previous.v == null || !value.strongEq(previous.v)){
-					if (count && previous.v != null) out.push(RödaInteger.of(i.i));
-					out.push(value);
-					i.i = 1;
-				}
-				else {
-					i.i++;
-				}
-				previous.v = value;
-			});
-			if (count) out.push(RödaInteger.of(i.i));
-		}, Collections.emptyList(), false));
+			NativeStage.run(new UniqStage(count), in, out);
+		}, Collections.emptyList(), false)
+				.withStage((typeargs, args, kwargs, scope) -> new UniqStage(count)));
 	}
 	
 	private static void addUnorderedUniqFunction(RödaScope S, String name, boolean count) {
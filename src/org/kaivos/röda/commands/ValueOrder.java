@@ -0,0 +1,99 @@
+package org.kaivos.röda.commands;
+
+import static org.kaivos.röda.RödaValue.FLOATING;
+import static org.kaivos.röda.RödaValue.INTEGER;
+import static org.kaivos.röda.RödaValue.STRING;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.kaivos.röda.Parser.ExpressionTree.CType;
+import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.runtime.Datatype;
+import org.kaivos.röda.type.RödaFloating;
+import org.kaivos.röda.type.RödaInteger;
+import org.kaivos.röda.type.RödaString;
+
+/**
+ * ValueOrder is the builtin ordering of values used by <code>sort</code>,
+ * <code>min</code> and <code>max</code>, defined by the <code>&lt;</code>
+ * operator.
+ *
+ * Integers, floating-point numbers and strings of the same type are compared
+ * directly, without calling the operator. An array that contains only values
+ * of one of these types is sorted as an array of <code>long</code>,
+ * <code>double</code> or <code>String</code>, and the values are rebuilt from
+ * the sorted array.
+ */
+final class ValueOrder {
+
+	private ValueOrder() {}
+
+	/* Suurempia taulukoita lajitellaan rinnakkain */
+	private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+	static final Comparator<RödaValue> NATURAL = ValueOrder::compare;
+
+	static boolean lessThan(RödaValue a, RödaValue b) {
+		if (a.is(INTEGER) && b.is(INTEGER)) return a.integer() < b.integer();
+		if (a.is(FLOATING) && b.is(FLOATING)) return a.floating() < b.floating();
+		if (a.is(STRING) && b.is(STRING)) return a.str().compareTo(b.str()) < 0;
+		return a.callOperator(CType.LT, b).bool();
+	}
+
+	static int compare(RödaValue a, RödaValue b) {
+		if (a.is(INTEGER) && b.is(INTEGER)) return Long.compare(a.integer(), b.integer());
+		if (a.is(FLOATING) && b.is(FLOATING)) {
+			double x = a.floating(), y = b.floating();
+			return x < y ? -1 : x == y ? 0 : 1;
+		}
+		if (a.is(STRING) && b.is(STRING)) return a.str().compareTo(b.str());
+		return a.callOperator(CType.LT, b).bool() ? -1 : a.strongEq(b) ? 0 : 1;
+	}
+
+	/**
+	 * Sorts the array in the builtin order. The sort is stable.
+	 */
+	static void sort(RödaValue[] values, boolean parallel) {
+		parallel &= values.length >= PARALLEL_THRESHOLD;
+		if (allOfType(values, INTEGER)) {
+			long[] numbers = new long[values.length];
+			for (int i = 0; i < values.length; i++) numbers[i] = values[i].integer();
+			if (parallel) Arrays.parallelSort(numbers);
+			else Arrays.sort(numbers);
+			for (int i = 0; i < values.length; i++) values[i] = RödaInteger.of(numbers[i]);
+			return;
+		}
+		if (allOfType(values, FLOATING)) {
+			double[] numbers = new double[values.length];
+			boolean ordered = true;
+			for (int i = 0; i < values.length && ordered; i++) {
+				numbers[i] = values[i].floating();
+				// Arrays.sort järjestää nämä eri tavalla kuin <-operaattori
+				ordered = !Double.isNaN(numbers[i]) && Double.doubleToRawLongBits(numbers[i]) != Long.MIN_VALUE;
+			}
+			if (ordered) {
+				if (parallel) Arrays.parallelSort(numbers);
+				else Arrays.sort(numbers);
+				for (int i = 0; i < values.length; i++) values[i] = RödaFloating.of(numbers[i]);
+				return;
+			}
+		}
+		if (allOfType(values, STRING)) {
+			String[] strings = new String[values.length];
+			for (int i = 0; i < values.length; i++) strings[i] = values[i].str();
+			if (parallel) Arrays.parallelSort(strings);
+			else Arrays.sort(strings);
+			for (int i = 0; i < values.length; i++) values[i] = RödaString.of(strings[i]);
+			return;
+		}
+		if (parallel) Arrays.parallelSort(values, NATURAL);
+		else Arrays.sort(values, NATURAL);
+	}
+
+	private static boolean allOfType(RödaValue[] values, Datatype type) {
+		for (RödaValue value : values)
+			if (!value.is(type)) return false;
+		return true;
+	}
+}
@@ -3,6 +3,7 @@ package org.kaivos.röda.runtime;
 import static org.kaivos.röda.Interpreter.unknownName;
 import static java.util.stream.Collectors.joining;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -12,9 +13,19 @@ import org.kaivos.röda.Interpreter.RecordDeclaration;
 import org.kaivos.röda.Interpreter.RödaScope;
 
 public class Datatype {
+	/* Sisäänrakennetut tyypit, joilla on oma bittinsä IdentitySetissä */
+	private static final List<String> BUILTIN_TYPES = Arrays.asList(
+			"string", "number", "integer", "floating", "boolean", "list", "map",
+			"function", "nfunction", "namespace", "reference");
+
+	static int builtinId(String name) {
+		return BUILTIN_TYPES.indexOf(name);
+	}
+
 	public final String name;
 	public final List<Datatype> subtypes;
 	public final Optional<RödaScope> scope;
+	final int builtinId;
 
 	public Datatype(String name,
 			List<Datatype> subtypes,
@@ -22,6 +33,7 @@ public class Datatype {
 		this.name = name;
 		this.subtypes = Collections.unmodifiableList(subtypes);
 		this.scope = scope;
+		this.builtinId = subtypes.isEmpty() ? builtinId(name) : -1;
 	}
 	
 	public Datatype(String name, List<Datatype> subtypes, RödaScope scope) {
@@ -36,12 +48,14 @@ public class Datatype {
 		this.name = name;
 		this.subtypes = Collections.emptyList();
 		this.scope = Optional.of(scope);
+		this.builtinId = builtinId(name);
 	}
 
 	public Datatype(String name) {
 		this.name = name;
 		this.subtypes = Collections.emptyList();
 		this.scope = Optional.empty();
+		this.builtinId = builtinId(name);
 	}
 	
 	private RecordDeclaration resolveDeclaration() {
@@ -0,0 +1,53 @@
+package org.kaivos.röda.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Frame describes the layout of the local variables of a single scope. Each
+ * variable that is statically known to be declared in the scope is given a
+ * fixed slot, so that reading the variable at runtime is a simple array access.
+ *
+ * Frames are filled by the resolver when the program is loaded and must not be
+ * modified after the code using them has started running.
+ */
+public class Frame {
+	private final List<String> names = new ArrayList<>();
+	private final Map<String, Integer> indices = new HashMap<>();
+
+	/**
+	 * Declares a new variable in the frame, or returns the slot of an existing
+	 * variable with the same name.
+	 */
+	public int declare(String name) {
+		Integer index = indices.get(name);
+		if (index != null) return index;
+		names.add(name);
+		indices.put(name, names.size()-1);
+		return names.size()-1;
+	}
+
+	/**
+	 * Returns the slot of the given variable, or -1 if the variable is not
+	 * declared in this frame.
+	 */
+	public int indexOf(String name) {
+		Integer index = indices.get(name);
+		return index == null ? -1 : index;
+	}
+
+	public String name(int slot) {
+		return names.get(slot);
+	}
+
+	public List<String> names() {
+		return Collections.unmodifiableList(names);
+	}
+
+	public int size() {
+		return names.size();
+	}
+}
@@ -11,6 +11,7 @@ public class Function {
 	public List<Parameter> parameters, kwparameters;
 	public boolean isVarargs;
 	public List<StatementTree> body;
+	public Frame frame;
 
 	public Function(String name,
 		 List<String> typeparams,
@@ -18,6 +19,16 @@ public class Function {
 		 boolean isVarargs,
 		 List<Parameter> kwparameters,
 		 List<StatementTree> body) {
+		this(name, typeparams, parameters, isVarargs, kwparameters, body, null);
+	}
+
+	public Function(String name,
+		 List<String> typeparams,
+		 List<Parameter> parameters,
+		 boolean isVarargs,
+		 List<Parameter> kwparameters,
+		 List<StatementTree> body,
+		 Frame frame) {
 		
 		for (Parameter p : parameters)
 			if (p.defaultValue != null)
@@ -33,6 +44,7 @@ public class Function {
 		this.kwparameters = kwparameters;
 		this.isVarargs = isVarargs;
 		this.body = body;
+		this.frame = frame;
 	}
 
 	public static class Parameter {
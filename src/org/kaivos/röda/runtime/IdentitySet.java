@@ -0,0 +1,86 @@
+package org.kaivos.röda.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * IdentitySet is the immutable set of datatypes a value belongs to. The first
+ * datatype of the set is the basic identity of the value.
+ *
+ * Identity sets of builtin datatypes are interned and shared by all values of
+ * the same type. Sets that contain a record type are not interned, because
+ * records with the same name may be declared in different scopes. The builtin
+ * datatypes are also stored as a bitset, so checking whether a value is, for
+ * example, a string or a number does not search the list of datatypes.
+ */
+public final class IdentitySet {
+	private static final ConcurrentHashMap<List<Datatype>, IdentitySet> interned = new ConcurrentHashMap<>();
+
+	public static final IdentitySet EMPTY = of(Collections.emptyList());
+
+	private final List<Datatype> types;
+	private final long builtinMask;
+
+	private IdentitySet(List<Datatype> types) {
+		this.types = types;
+		long mask = 0;
+		for (Datatype type : types)
+			if (type.builtinId >= 0) mask |= 1L << type.builtinId;
+		this.builtinMask = mask;
+	}
+
+	public static IdentitySet of(Datatype... types) {
+		return of(Arrays.asList(types));
+	}
+
+	public static IdentitySet of(List<Datatype> types) {
+		// Datatype.equals ei vertaa näkyvyysaluetta, joten tietuetyyppejä ei voi jakaa
+		if (!types.stream().allMatch(IdentitySet::isUnscoped))
+			return new IdentitySet(Collections.unmodifiableList(new ArrayList<>(types)));
+		IdentitySet set = interned.get(types);
+		if (set != null) return set;
+		List<Datatype> copy = Collections.unmodifiableList(new ArrayList<>(types));
+		return interned.computeIfAbsent(copy, IdentitySet::new);
+	}
+
+	private static boolean isUnscoped(Datatype type) {
+		return !type.scope.isPresent() && type.subtypes.stream().allMatch(IdentitySet::isUnscoped);
+	}
+
+	/**
+	 * Returns a set that contains the datatypes of this set followed by the
+	 * given datatype.
+	 */
+	public IdentitySet with(Datatype type) {
+		List<Datatype> newTypes = new ArrayList<>(types.size()+1);
+		newTypes.addAll(types);
+		newTypes.add(type);
+		return of(newTypes);
+	}
+
+	public List<Datatype> list() {
+		return types;
+	}
+
+	public Datatype basic() {
+		return types.get(0);
+	}
+
+	public boolean contains(Datatype type) {
+		if (type.builtinId >= 0)
+			return (builtinMask & 1L << type.builtinId) != 0;
+		return types.contains(type);
+	}
+
+	public boolean contains(String name) {
+		int id = Datatype.builtinId(name);
+		if (id >= 0)
+			return (builtinMask & 1L << id) != 0;
+		for (Datatype type : types)
+			if (type.subtypes.isEmpty() && type.name.equals(name)) return true;
+		return false;
+	}
+}
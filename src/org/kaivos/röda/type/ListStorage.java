@@ -0,0 +1,236 @@
+package org.kaivos.röda.type;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import org.kaivos.röda.RödaValue;
+
+/**
+ * ListStorage stores the elements of a {@link RödaList}.
+ *
+ * A list that contains only integers, only floating-point numbers or only
+ * strings is stored as an array of <code>long</code>, <code>double</code> or
+ * <code>String</code>, and the element values are created when they are read.
+ * When a value of another type is put into such a list, the elements are
+ * converted to values and the list is stored as an array of values from then
+ * on. An empty list chooses its storage when its first element is added.
+ */
+final class ListStorage extends AbstractList<RödaValue> implements RandomAccess {
+
+	private static final int EMPTY = 0, GENERIC = 1, LONGS = 2, DOUBLES = 3, STRINGS = 4;
+
+	private int mode = EMPTY;
+	private long[] longs;
+	private double[] doubles;
+	private String[] strings;
+	private RödaValue[] values;
+	private int size = 0;
+
+	ListStorage() {}
+
+	ListStorage(Collection<? extends RödaValue> elements) {
+		int newMode = EMPTY;
+		for (RödaValue value : elements) {
+			int valueMode = modeOf(value);
+			if (newMode == EMPTY) newMode = valueMode;
+			else if (newMode != valueMode) {
+				newMode = GENERIC;
+				break;
+			}
+		}
+		allocate(newMode, elements.size());
+		for (RödaValue value : elements)
+			store(size++, value);
+	}
+
+	private static int modeOf(RödaValue value) {
+		Class<?> c = value.getClass();
+		if (c == RödaInteger.class) return LONGS;
+		if (c == RödaFloating.class) return DOUBLES;
+		// käännetty säännöllinen lauseke säilytetään arvon mukana
+		if (c == RödaString.class && !((RödaString) value).hasPattern()) return STRINGS;
+		return GENERIC;
+	}
+
+	private void allocate(int newMode, int capacity) {
+		mode = newMode;
+		longs = null;
+		doubles = null;
+		strings = null;
+		values = null;
+		switch (newMode) {
+		case LONGS: longs = new long[capacity]; break;
+		case DOUBLES: doubles = new double[capacity]; break;
+		case STRINGS: strings = new String[capacity]; break;
+		case GENERIC: values = new RödaValue[capacity]; break;
+		default:
+		}
+	}
+
+	private int capacity() {
+		switch (mode) {
+		case LONGS: return longs.length;
+		case DOUBLES: return doubles.length;
+		case STRINGS: return strings.length;
+		case GENERIC: return values.length;
+		default: return 0;
+		}
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		int capacity = capacity();
+		if (minCapacity <= capacity) return;
+		int newCapacity = Math.max(minCapacity, capacity + (capacity >> 1) + 1);
+		switch (mode) {
+		case LONGS: longs = Arrays.copyOf(longs, newCapacity); break;
+		case DOUBLES: doubles = Arrays.copyOf(doubles, newCapacity); break;
+		case STRINGS: strings = Arrays.copyOf(strings, newCapacity); break;
+		case GENERIC: values = Arrays.copyOf(values, newCapacity); break;
+		default:
+		}
+	}
+
+	/* Valmistelee listan arvon tallentamiseen, vaihtaa tarvittaessa yleiseen tallennusmuotoon */
+	private void prepareFor(RödaValue value, int minCapacity) {
+		if (mode == EMPTY || size == 0 && mode != GENERIC) {
+			allocate(modeOf(value), Math.max(minCapacity, 10));
+			return;
+		}
+		if (mode != GENERIC && modeOf(value) != mode) {
+			RödaValue[] newValues = new RödaValue[Math.max(minCapacity, capacity())];
+			for (int i = 0; i < size; i++) newValues[i] = get(i);
+			allocate(GENERIC, 0);
+			values = newValues;
+		}
+		ensureCapacity(minCapacity);
+	}
+
+	private void store(int index, RödaValue value) {
+		switch (mode) {
+		case LONGS: longs[index] = value.integer(); break;
+		case DOUBLES: doubles[index] = value.floating(); break;
+		case STRINGS: strings[index] = value.str(); break;
+		default: values[index] = value;
+		}
+	}
+
+	private void move(int from, int to, int length) {
+		switch (mode) {
+		case LONGS: System.arraycopy(longs, from, longs, to, length); break;
+		case DOUBLES: System.arraycopy(doubles, from, doubles, to, length); break;
+		case STRINGS: System.arraycopy(strings, from, strings, to, length); break;
+		case GENERIC: System.arraycopy(values, from, values, to, length); break;
+		default:
+		}
+	}
+
+	private void clearTail(int newSize) {
+		if (mode == STRINGS) Arrays.fill(strings, newSize, size, null);
+		else if (mode == GENERIC) Arrays.fill(values, newSize, size, null);
+		size = newSize;
+	}
+
+	private void checkIndex(int index, int limit) {
+		if (index < 0 || index >= limit)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public RödaValue get(int index) {
+		checkIndex(index, size);
+		switch (mode) {
+		case LONGS: return RödaInteger.of(longs[index]);
+		case DOUBLES: return RödaFloating.of(doubles[index]);
+		case STRINGS: return RödaString.of(strings[index]);
+		default: return values[index];
+		}
+	}
+
+	@Override
+	public RödaValue set(int index, RödaValue value) {
+		checkIndex(index, size);
+		RödaValue old = get(index);
+		prepareFor(value, size);
+		store(index, value);
+		return old;
+	}
+
+	@Override
+	public void add(int index, RödaValue value) {
+		checkIndex(index, size+1);
+		prepareFor(value, size+1);
+		move(index, index+1, size-index);
+		store(index, value);
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public RödaValue remove(int index) {
+		checkIndex(index, size);
+		RödaValue old = get(index);
+		move(index+1, index, size-index-1);
+		clearTail(size-1);
+		modCount++;
+		return old;
+	}
+
+	@Override
+	protected void removeRange(int fromIndex, int toIndex) {
+		move(toIndex, fromIndex, size-toIndex);
+		clearTail(size-(toIndex-fromIndex));
+		modCount++;
+	}
+
+	@Override
+	public void clear() {
+		allocate(EMPTY, 0);
+		size = 0;
+		modCount++;
+	}
+
+	/**
+	 * Returns a storage that contains copies of the elements.
+	 */
+	ListStorage copy() {
+		ListStorage copy = new ListStorage();
+		copy.mode = mode;
+		copy.size = size;
+		switch (mode) {
+		case LONGS: copy.longs = Arrays.copyOf(longs, size); break;
+		case DOUBLES: copy.doubles = Arrays.copyOf(doubles, size); break;
+		case STRINGS: copy.strings = Arrays.copyOf(strings, size); break;
+		case GENERIC:
+			copy.values = new RödaValue[size];
+			for (int i = 0; i < size; i++) copy.values[i] = values[i].copy();
+			break;
+		default:
+		}
+		return copy;
+	}
+
+	boolean storesLongs() {
+		return mode == LONGS;
+	}
+
+	long getLong(int index) {
+		checkIndex(index, size);
+		return longs[index];
+	}
+
+	boolean storesDoubles() {
+		return mode == DOUBLES;
+	}
+
+	double getDouble(int index) {
+		checkIndex(index, size);
+		return doubles[index];
+	}
+}
@@ -2,12 +2,15 @@ package org.kaivos.röda.type;
 
 import org.kaivos.röda.Parser;
 import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.runtime.IdentitySet;
 
 public class RödaBoolean extends RödaValue {
 	private boolean bool;
 
+	private static final IdentitySet IDENTITIES = IdentitySet.of(BOOLEAN);
+
 	private RödaBoolean(boolean bool) {
-		assumeIdentity(BOOLEAN);
+		assumeIdentities(IDENTITIES);
 		this.bool = bool;
 	}
 
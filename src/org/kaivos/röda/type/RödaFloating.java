@@ -2,14 +2,16 @@ package org.kaivos.röda.type;
 
 import org.kaivos.röda.Parser;
 import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.runtime.IdentitySet;
 import static org.kaivos.röda.Interpreter.typeMismatch;
 
 public class RödaFloating extends RödaValue {
 	private double number;
 
+	private static final IdentitySet IDENTITIES = IdentitySet.of(FLOATING, NUMBER);
+
 	private RödaFloating(double number) {
-		assumeIdentity(FLOATING);
-		assumeIdentity(NUMBER);
+		assumeIdentities(IDENTITIES);
 		this.number = number;
 	}
 
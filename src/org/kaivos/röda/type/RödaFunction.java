@@ -3,19 +3,22 @@ package org.kaivos.röda.type;
 import org.kaivos.röda.Interpreter.RödaScope;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Function;
+import org.kaivos.röda.runtime.IdentitySet;
 
 public class RödaFunction extends RödaValue {
 	private Function function;
 	private RödaScope localScope;
 
+	private static final IdentitySet IDENTITIES = IdentitySet.of(FUNCTION);
+
 	private RödaFunction(Function function) {
-		assumeIdentity(FUNCTION);
+		assumeIdentities(IDENTITIES);
 		this.function = function;
 		this.localScope = null;
 	}
 
 	private RödaFunction(Function function, RödaScope localScope) {
-		assumeIdentity("function");
+		assumeIdentities(IDENTITIES);
 		this.function = function;
 		this.localScope = localScope;
 	}
@@ -50,6 +53,7 @@ public class RödaFunction extends RödaValue {
 	}
 
 	public static RödaFunction of(Function function, RödaScope localScope) {
+		if (localScope != null) localScope.markCaptured();
 		return new RödaFunction(function, localScope);
 	}
 }
@@ -2,14 +2,16 @@ package org.kaivos.röda.type;
 
 import org.kaivos.röda.Parser;
 import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.runtime.IdentitySet;
 import static org.kaivos.röda.Interpreter.typeMismatch;
 
 public class RödaInteger extends RödaValue {
 	private long number;
 
+	private static final IdentitySet IDENTITIES = IdentitySet.of(INTEGER, NUMBER);
+
 	private RödaInteger(long number) {
-		assumeIdentity(INTEGER);
-		assumeIdentity(NUMBER);
+		assumeIdentities(IDENTITIES);
 		this.number = number;
 	}
 
@@ -38,44 +40,58 @@ public class RödaInteger extends RödaValue {
 			return RödaInteger.of(~this.integer());
 		default:
 		}
+		// kahden kokonaisluvun laskutoimitukset ilman tyyppitarkistuksia
+		if (value instanceof RödaInteger) return calculate(operator, value, ((RödaInteger) value).number);
 		if (value.is(FLOATING)) return RödaFloating.of(this.integer()).callOperator(operator, value);
 		// TODO: ^ virheviestit eivät näyttävät tyypin olevan floating
 		if (!value.is(INTEGER)) typeMismatch("can't " + operator.name() + " " + typeString() + " and " + value.typeString());
+		return calculate(operator, value, value.integer());
+	}
+
+	/**
+	 * Calculates a binary operator of two integers without checking the type
+	 * of the operand.
+	 */
+	public RödaValue callIntegerOperator(Parser.ExpressionTree.CType operator, RödaInteger value) {
+		return calculate(operator, value, value.number);
+	}
+
+	private RödaValue calculate(Parser.ExpressionTree.CType operator, RödaValue value, long other) {
 		switch (operator) {
 		case POW:
-			return RödaInteger.of((long) Math.pow(this.integer(), value.integer()));
+			return RödaInteger.of((long) Math.pow(number, other));
 		case MUL:
-			return RödaInteger.of(this.integer()*value.integer());
+			return RödaInteger.of(number*other);
 		case DIV:
-			return RödaFloating.of((double) this.integer()/value.integer());
+			return RödaFloating.of((double) number/other);
 		case IDIV:
-			return RödaInteger.of(this.integer()/value.integer());
+			return RödaInteger.of(number/other);
 		case MOD:
-			return RödaInteger.of(this.integer()%value.integer());
+			return RödaInteger.of(number%other);
 		case ADD:
-			return RödaInteger.of(this.integer()+value.integer());
+			return RödaInteger.of(number+other);
 		case SUB:
-			return RödaInteger.of(this.integer()-value.integer());
+			return RödaInteger.of(number-other);
 		case BAND:
-			return RödaInteger.of(this.integer()&value.integer());
+			return RödaInteger.of(number&other);
 		case BOR:
-			return RödaInteger.of(this.integer()|value.integer());
+			return RödaInteger.of(number|other);
 		case BXOR:
-			return RödaInteger.of(this.integer()^value.integer());
+			return RödaInteger.of(number^other);
 		case BLSHIFT:
-			return RödaInteger.of(this.integer()<<value.integer());
+			return RödaInteger.of(number<<other);
 		case BRSHIFT:
-			return RödaInteger.of(this.integer()>>value.integer());
+			return RödaInteger.of(number>>other);
 		case BRRSHIFT:
-			return RödaInteger.of(this.integer()>>>value.integer());
+			return RödaInteger.of(number>>>other);
 		case LT:
-			return RödaBoolean.of(this.integer()<value.integer());
+			return RödaBoolean.of(number<other);
 		case GT:
-			return RödaBoolean.of(this.integer()>value.integer());
+			return RödaBoolean.of(number>other);
 		case LE:
-			return RödaBoolean.of(this.integer()<=value.integer());
+			return RödaBoolean.of(number<=other);
 		case GE:
-			return RödaBoolean.of(this.integer()>=value.integer());
+			return RödaBoolean.of(number>=other);
 		default:
 			return super.callOperator(operator, value);
 		}
@@ -90,7 +106,17 @@ public class RödaInteger extends RödaValue {
 		return Long.hashCode(number);
 	}
 
+	/* Pienet kokonaisluvut luodaan vain kerran */
+	private static final long CACHE_LOW = -128, CACHE_HIGH = 1023;
+	private static final RödaInteger[] CACHE = new RödaInteger[(int) (CACHE_HIGH - CACHE_LOW + 1)];
+	static {
+		for (int i = 0; i < CACHE.length; i++)
+			CACHE[i] = new RödaInteger(CACHE_LOW + i);
+	}
+
 	public static RödaInteger of(long number) {
+		if (number >= CACHE_LOW && number <= CACHE_HIGH)
+			return CACHE[(int) (number - CACHE_LOW)];
 		return new RödaInteger(number);
 	}
 }
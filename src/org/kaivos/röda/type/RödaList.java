@@ -12,22 +12,26 @@ import java.util.List;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.Parser.ExpressionTree.CType;
 import org.kaivos.röda.runtime.Datatype;
+import org.kaivos.röda.runtime.IdentitySet;
 
 public class RödaList extends RödaValue {
 
 	private Datatype type;
-	private List<RödaValue> list;
+	private ListStorage list;
 
-	private RödaList(List<RödaValue> list) {
-		assumeIdentity(LIST);
+	private static final IdentitySet IDENTITIES = IdentitySet.of(LIST);
+
+	private RödaList(ListStorage list) {
+		assumeIdentities(IDENTITIES);
 		this.type = null;
 		this.list = list;
 	}
 
-	private RödaList(Datatype type, List<RödaValue> list) {
+	private RödaList(Datatype type, ListStorage list) {
 		if (type != null)
-			assumeIdentity(new Datatype(LIST.name, Arrays.asList(type)));
-		assumeIdentity("list");
+			assumeIdentities(IdentitySet.of(new Datatype(LIST.name, Arrays.asList(type)), LIST));
+		else
+			assumeIdentities(IDENTITIES);
 		this.type = type;
 		this.list = list;
 		if (type != null) {
@@ -41,9 +45,7 @@ public class RödaList extends RödaValue {
 	}
 
 	@Override public RödaValue copy() {
-		List<RödaValue> newList = new ArrayList<>(list.size());
-		for (RödaValue item : list) newList.add(item.copy());
-		return new RödaList(type, newList);
+		return new RödaList(type, list.copy());
 	}
 
 	@Override public String str() {
@@ -254,21 +256,21 @@ public class RödaList extends RödaValue {
 			
 		switch (operator) {
 		case MUL: {
-			List<RödaValue> newList = new ArrayList<>();
+			ListStorage newList = new ListStorage();
 			for (int i = 0; i < value.integer(); i++) {
 				newList.addAll(this.list);
 			}
-			return of(newList);
+			return new RödaList(newList);
 		}
 		case ADD: {
-			List<RödaValue> newList = new ArrayList<>(this.list);
+			ListStorage newList = new ListStorage(this.list);
 			newList.add(value);
-			return of(newList);
+			return new RödaList(newList);
 		}
 		case SUB: {
-			List<RödaValue> newList = new ArrayList<>(this.list);
+			ListStorage newList = new ListStorage(this.list);
 			newList.remove(value);
-			return of(newList);
+			return new RödaList(newList);
 		}
 		case LT:
 			return RödaBoolean.of(compare((RödaList) value) < 0);
@@ -288,27 +290,52 @@ public class RödaList extends RödaValue {
 		return list.hashCode();
 	}
 
+	/**
+	 * Returns true if the list contains only integers. The elements can then be
+	 * read with {@link #integerAt(int)} without creating a value for each.
+	 */
+	public boolean containsOnlyIntegers() {
+		return list.storesLongs();
+	}
+
+	public long integerAt(int index) {
+		return list.getLong(index);
+	}
+
+	/**
+	 * Returns true if the list contains only floating-point numbers. The
+	 * elements can then be read with {@link #floatingAt(int)} without creating a
+	 * value for each.
+	 */
+	public boolean containsOnlyFloatings() {
+		return list.storesDoubles();
+	}
+
+	public double floatingAt(int index) {
+		return list.getDouble(index);
+	}
+
 	public static RödaList of(List<RödaValue> list) {
-		return new RödaList(new ArrayList<>(list));
+		return new RödaList(new ListStorage(list));
 	}
 
 	public static RödaList of(Datatype type, List<RödaValue> list) {
-		return new RödaList(type, new ArrayList<>(list));
+		return new RödaList(type, new ListStorage(list));
 	}
 
 	public static RödaList of(String type, List<RödaValue> list) {
-		return new RödaList(new Datatype(type), new ArrayList<>(list));
+		return new RödaList(new Datatype(type), new ListStorage(list));
 	}
 
 	public static RödaList of(RödaValue... elements) {
-		return new RödaList(new ArrayList<>(Arrays.asList(elements)));
+		return new RödaList(new ListStorage(Arrays.asList(elements)));
 	}
 
 	public static RödaList empty() {
-		return new RödaList(new ArrayList<>());
+		return new RödaList(new ListStorage());
 	}
 
 	public static RödaList empty(Datatype type) {
-		return new RödaList(type, new ArrayList<>());
+		return new RödaList(type, new ListStorage());
 	}
 }
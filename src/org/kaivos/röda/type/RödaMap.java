@@ -10,22 +10,26 @@ import java.util.Map;
 
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Datatype;
+import org.kaivos.röda.runtime.IdentitySet;
 
 public class RödaMap extends RödaValue {
 
 	private Datatype type;
 	private Map<String, RödaValue> map;
 
+	private static final IdentitySet IDENTITIES = IdentitySet.of(MAP);
+
 	private RödaMap(Map<String, RödaValue> map) {
-		assumeIdentity(MAP);
+		assumeIdentities(IDENTITIES);
 		this.type = null;
 		this.map = map;
 	}
 
 	private RödaMap(Datatype type, Map<String, RödaValue> map) {
 		if (type != null)
-			assumeIdentity(new Datatype(MAP.name, Arrays.asList(type)));
-		assumeIdentity("map");
+			assumeIdentities(IdentitySet.of(new Datatype(MAP.name, Arrays.asList(type)), MAP));
+		else
+			assumeIdentities(IDENTITIES);
 		this.type = type;
 		this.map = map;
 		if (type != null) {
@@ -8,13 +8,16 @@ import static org.kaivos.röda.Interpreter.unknownName;
 import java.util.Optional;
 
 import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.runtime.IdentitySet;
 
 public class RödaNamespace extends RödaValue {
 
 	private RödaScope scope;
 	
+	private static final IdentitySet IDENTITIES = IdentitySet.of(NAMESPACE);
+
 	private RödaNamespace(RödaScope scope) {
-		assumeIdentity(NAMESPACE);
+		assumeIdentities(IDENTITIES);
 		this.scope = scope;
 	}
 	
@@ -66,6 +69,7 @@ public class RödaNamespace extends RödaValue {
 	}
 	
 	public static RödaNamespace of(RödaScope scope) {
+		scope.markCaptured();
 		return new RödaNamespace(scope);
 	}
 	
@@ -8,6 +8,7 @@ import org.kaivos.röda.RödaStream;
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Datatype;
 import org.kaivos.röda.runtime.Function.Parameter;
+import org.kaivos.röda.runtime.IdentitySet;
 
 import static org.kaivos.röda.Interpreter.RödaScope;
 
@@ -15,6 +16,7 @@ public class RödaNativeFunction extends RödaValue {
 	public static class NativeFunction {
 		public String name;
 		public NativeFunctionBody body;
+		public NativeStageFactory stage;
 		public boolean isVarargs, isKwVarargs;
 		public List<Parameter> parameters, kwparameters;
 	}
@@ -27,11 +29,63 @@ public class RödaNativeFunction extends RödaValue {
 				RödaStream in, RödaStream out);
 	}
 
+	/**
+	 * A push-based form of a function that reads its input one value at a time.
+	 * When such a function follows another command in a pipeline, the values
+	 * that the previous command pushes are given directly to the stage in the
+	 * same thread.
+	 */
+	public static interface NativeStage {
+		/**
+		 * Handles the next value of the input.
+		 */
+		public void push(RödaValue value, RödaStream out);
+
+		/**
+		 * Called after the last value of the input.
+		 */
+		public default void end(RödaStream out) {
+		}
+
+		/**
+		 * Returns true if the stage does not read more values.
+		 */
+		public default boolean done() {
+			return false;
+		}
+
+		/**
+		 * Gives the values of the input stream to the stage until the input ends
+		 * or the stage is done.
+		 */
+		public static void run(NativeStage stage, RödaStream in, RödaStream out) {
+			while (!stage.done()) {
+				RödaValue value = in.pull();
+				if (value == null) break;
+				stage.push(value, out);
+			}
+			stage.end(out);
+		}
+	}
+
+	public static interface NativeStageFactory {
+		/**
+		 * Returns a new stage, or null if the function does not read its input
+		 * with the given arguments. In that case the body of the function is
+		 * executed when the input ends.
+		 */
+		public NativeStage make(List<Datatype> typeargs,
+				List<RödaValue> args,
+				Map<String, RödaValue> kwargs,
+				RödaScope scope);
+	}
+
 	private NativeFunction function;
 
+	private static final IdentitySet IDENTITIES = IdentitySet.of(NFUNCTION, FUNCTION);
+
 	private RödaNativeFunction(NativeFunction function) {
-		assumeIdentity(NFUNCTION);
-		assumeIdentity(FUNCTION);
+		assumeIdentities(IDENTITIES);
 		this.function = function;
 	}
 
@@ -56,6 +110,14 @@ public class RödaNativeFunction extends RödaValue {
 		return function.body.hashCode();
 	}
 
+	/**
+	 * Sets the push-based form of the function and returns the function.
+	 */
+	public RödaNativeFunction withStage(NativeStageFactory stage) {
+		function.stage = stage;
+		return this;
+	}
+
 	public static RödaNativeFunction of(NativeFunction function) {
 		return new RödaNativeFunction(function);
 	}
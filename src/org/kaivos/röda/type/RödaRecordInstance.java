@@ -13,6 +13,7 @@ import java.util.Map;
 
 import org.kaivos.röda.RödaValue;
 import org.kaivos.röda.runtime.Datatype;
+import org.kaivos.röda.runtime.IdentitySet;
 import org.kaivos.röda.runtime.Record;
 
 public class RödaRecordInstance extends RödaValue {
@@ -20,7 +21,7 @@ public class RödaRecordInstance extends RödaValue {
 	private Map<String, RödaValue> fields;
 	private Map<String, Datatype> fieldTypes;
 
-	private RödaRecordInstance(List<Datatype> identities,
+	private RödaRecordInstance(IdentitySet identities,
 				   boolean isValueType,
 				   Map<String, RödaValue> fields,
 				   Map<String, Datatype> fieldTypes) {
@@ -88,7 +89,7 @@ public class RödaRecordInstance extends RödaValue {
 		Map<String, Datatype> fieldTypes = new HashMap<>();
 		List<Datatype> identities = new ArrayList<>();
 		construct(record, typearguments, fieldTypes, identities);
-		return new RödaRecordInstance(identities, record.isValueType, new HashMap<>(), fieldTypes);
+		return new RödaRecordInstance(IdentitySet.of(identities), record.isValueType, new HashMap<>(), fieldTypes);
 	}
 
 	private static void construct(Record record, List<Datatype> typearguments,
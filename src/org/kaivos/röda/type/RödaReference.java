@@ -1,6 +1,7 @@
 package org.kaivos.röda.type;
 
 import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.runtime.IdentitySet;
 import static org.kaivos.röda.Interpreter.error;
 import static org.kaivos.röda.Interpreter.unknownName;
 import static org.kaivos.röda.Interpreter.RödaScope;
@@ -8,14 +9,19 @@ import static org.kaivos.röda.Interpreter.RödaScope;
 public class RödaReference extends RödaValue {
 	private String target;
 	private RödaScope scope;
+	private int depth, slot;
 	
 	private String file;
 	private int line;
 
-	private RödaReference(String target, RödaScope scope, String file, int line) {
-		assumeIdentity(REFERENCE);
+	private static final IdentitySet IDENTITIES = IdentitySet.of(REFERENCE);
+
+	private RödaReference(String target, RödaScope scope, int depth, int slot, String file, int line) {
+		assumeIdentities(IDENTITIES);
 		this.target = target;
 		this.scope = scope;
+		this.depth = depth;
+		this.slot = slot;
 		this.file = file;
 		this.line = line;
 	}
@@ -33,15 +39,20 @@ public class RödaReference extends RödaValue {
 		return target;
 	}
 
+	private RödaValue resolveTarget() {
+		if (slot >= 0) return scope.resolve(target, depth, slot);
+		return scope.resolve(target);
+	}
+
 	@Override public RödaValue resolve(boolean implicite) {
-		RödaValue t = scope.resolve(target);
+		RödaValue t = resolveTarget();
 		if (t == null) unknownName("variable not found " + (implicite ? "" : "(via explicite reference)")
 				     + ": " + target + " (at " + file + ":" + line + ")");
 		return t;
 	}
 
 	@Override public RödaValue unsafeResolve() {
-		return scope.resolve(target);
+		return resolveTarget();
 	}
 
 	@Override public RödaValue impliciteResolve() {
@@ -49,7 +60,8 @@ public class RödaReference extends RödaValue {
 	}
 
 	@Override public void assign(RödaValue value) {
-		scope.set(target, value);
+		if (slot >= 0) scope.set(target, depth, slot, value);
+		else scope.set(target, value);
 	}
 
 	@Override public void assignLocal(RödaValue value) {
@@ -67,6 +79,10 @@ public class RödaReference extends RödaValue {
 	}
 
 	public static RödaReference of(String target, RödaScope scope, String file, int line) {
-		return new RödaReference(target, scope, file, line);
+		return new RödaReference(target, scope, -1, -1, file, line);
+	}
+
+	public static RödaReference of(String target, RödaScope scope, int depth, int slot, String file, int line) {
+		return new RödaReference(target, scope, depth, slot, file, line);
 	}
 }
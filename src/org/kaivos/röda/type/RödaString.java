@@ -9,14 +9,40 @@ import java.util.regex.Pattern;
 
 import org.kaivos.röda.Parser.ExpressionTree.CType;
 import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.runtime.IdentitySet;
 
+/**
+ * RödaString is an immutable string value.
+ *
+ * A long string made by concatenation is kept in a {@link StringBuilder}
+ * together with its length, and the contiguous text is created only when it is
+ * needed. A string that ends at the end of its builder is extended by
+ * appending to the builder in place; the original string still sees only its
+ * own prefix. Appending repeatedly to a variable therefore takes amortized
+ * constant time instead of copying the whole string each time.
+ */
 public class RödaString extends RödaValue {
+	/* Tätä lyhyemmät yhdistelmät kopioidaan suoraan uudeksi merkkijonoksi */
+	private static final int BUILDER_THRESHOLD = 256;
+
 	private String text;
 	private Pattern pattern;
+	private final StringBuilder builder;
+	private final int length;
+
+	private static final IdentitySet IDENTITIES = IdentitySet.of(STRING);
 
 	private RödaString(String text) {
-		assumeIdentity(STRING);
+		assumeIdentities(IDENTITIES);
 		this.text = text;
+		this.builder = null;
+		this.length = text.length();
+	}
+
+	private RödaString(StringBuilder builder, int length) {
+		assumeIdentities(IDENTITIES);
+		this.builder = builder;
+		this.length = length;
 	}
 	
 	private RödaString(Pattern pattern) {
@@ -29,9 +55,18 @@ public class RödaString extends RödaValue {
 	}
 
 	@Override public String str() {
+		if (text == null) {
+			synchronized (builder) {
+				text = builder.substring(0, length);
+			}
+		}
 		return text;
 	}
 	
+	boolean hasPattern() {
+		return pattern != null;
+	}
+
 	@Override public Pattern pattern() {
 		if (pattern != null) return pattern;
 		else return super.pattern();
@@ -39,45 +74,45 @@ public class RödaString extends RödaValue {
 
 	@Override public long integer() {
 		try {
-			return Long.parseLong(text);
+			return Long.parseLong(str());
 		} catch (NumberFormatException e) {
-			typeMismatch("can't convert '" + text + "' to a number");
+			typeMismatch("can't convert '" + str() + "' to a number");
 			return -1;
 		}
 	}
 
 	@Override public RödaValue length() {
-		return RödaInteger.of(text.length());
+		return RödaInteger.of(length);
 	}
 
 	@Override public RödaValue slice(RödaValue startVal, RödaValue endVal, RödaValue stepVal) {
 		long step = stepVal == null ? 1 : stepVal.integer();
 		long start = startVal != null ? startVal.integer() : step > 0 ? 0 : -1;
-		if (start < 0) start = text.length()+start;
+		if (start < 0) start = length+start;
 		long end;
 		if (endVal == null) {
 			if (step < 0) end = -1;
-			else end = text.length();
+			else end = length;
 		}
 		else {
 			end = endVal.integer();
-			if (end < 0) end = text.length()+end;
-			if (step > 0 && end == 0 && start > 0) end = text.length();
+			if (end < 0) end = length+end;
+			if (step > 0 && end == 0 && start > 0) end = length;
 		}
 		if (start > Integer.MAX_VALUE || end > Integer.MAX_VALUE)
 			outOfBounds("string index out of bounds: too large number: " + (start > end ? start : end));
 		if (step == 1)
-			return of(text.substring((int) start, (int) end));
+			return of(str().substring((int) start, (int) end));
 		StringBuilder newString = new StringBuilder();
 		if (step > 0)
-			for (int i = (int) start; i < end; i += step) newString.append(text.charAt(i));
+			for (int i = (int) start; i < end; i += step) newString.append(str().charAt(i));
 		else if (step < 0)
-			for (int i = (int) start; i > end; i += step) newString.append(text.charAt(i));
+			for (int i = (int) start; i > end; i += step) newString.append(str().charAt(i));
 		return of(newString.toString());
 	}
 	
 	@Override public RödaValue containsValue(RödaValue seq) {
-		return RödaBoolean.of(text.indexOf(seq.str()) >= 0);
+		return RödaBoolean.of(str().indexOf(seq.str()) >= 0);
 	}
 	
 	@Override
@@ -101,34 +136,52 @@ public class RödaString extends RödaValue {
 			return RödaBoolean.of(this.str().compareTo(value.str()) >= 0);
 		case MATCHES:
 			if (!value.is(STRING)) typeMismatch("tried to MATCH " + value.typeString());
-			if (((RödaString) value).pattern != null)
-				return RödaBoolean.of(((RödaString) value).pattern.matcher(text).matches());
-			else
-				return RödaBoolean.of(text.matches(value.str()));
+			return RödaBoolean.of(value.pattern().matcher(str()).matches());
 		case NO_MATCH:
 			if (!value.is(STRING)) typeMismatch("tried to NO_MATCH " + value.typeString());
-			if (((RödaString) value).pattern != null)
-				return RödaBoolean.of(!((RödaString) value).pattern.matcher(text).matches());
-			else
-				return RödaBoolean.of(!text.matches(value.str()));
+			return RödaBoolean.of(!value.pattern().matcher(str()).matches());
 		default:
 			return super.callOperator(operator, value);
 		}
 	}
 
 	@Override public boolean strongEq(RödaValue value) {
-		return value.is(STRING) && value.str().equals(text);
+		return value.is(STRING) && value.str().equals(str());
 	}
 	
 	@Override
 	public int hashCode() {
-		return text.hashCode();
+		return str().hashCode();
 	}
 
 	public static RödaString of(String text) {
 		return new RödaString(text);
 	}
 
+	/**
+	 * Returns the concatenation of the string representations of the given
+	 * values.
+	 */
+	public static RödaString concat(RödaValue a, RödaValue b) {
+		String tail = b.str();
+		if (a instanceof RödaString && ((RödaString) a).builder != null) {
+			RödaString head = (RödaString) a;
+			synchronized (head.builder) {
+				// rakentajaa voi jatkaa vain, jos mikään muu merkkijono ei ole jo jatkanut sitä
+				if (head.builder.length() == head.length) {
+					head.builder.append(tail);
+					return new RödaString(head.builder, head.builder.length());
+				}
+			}
+		}
+		String head = a.str();
+		if (head.length() + tail.length() < BUILDER_THRESHOLD)
+			return of(head.concat(tail));
+		StringBuilder builder = new StringBuilder(head.length() + tail.length() + BUILDER_THRESHOLD);
+		builder.append(head).append(tail);
+		return new RödaString(builder, builder.length());
+	}
+
 	public static RödaString of(Pattern pattern) {
 		return new RödaString(pattern);
 	}
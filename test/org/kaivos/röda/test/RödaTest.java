@@ -1,26 +1,51 @@
 package org.kaivos.röda.test;
 
 import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 
 import static java.util.stream.Collectors.joining;
 
+import org.kaivos.röda.AstCache;
 import org.kaivos.röda.Interpreter;
 import static org.kaivos.röda.Interpreter.RödaException;
 import org.kaivos.röda.RödaStream;
 import static org.kaivos.röda.RödaStream.*;
 import org.kaivos.röda.RödaValue;
+import org.kaivos.röda.Scheduler;
 import org.kaivos.röda.type.RödaString;
 
+@RunWith(Parameterized.class)
 public class RödaTest {
 	private ArrayList<RödaValue> results;
+
+	// Kaikki testit ajetaan tulkaten, optimoiden ja kääntäen; käännettäessä jokainen lauseke käännetään heti
+	@Parameters(name = "mode={0}")
+	public static Collection<Object[]> modes() {
+		return Arrays.asList(new Object[][] { { "interpret" }, { "optimize" }, { "compile" } });
+	}
+
+	@Parameter
+	public String mode;
 	
 	@Before
 	public void init() {
 		results = new ArrayList<>();
+		Interpreter.INTERPRETER.enableOptimization = !mode.equals("interpret");
+		Interpreter.INTERPRETER.enableCompilation = mode.equals("compile");
+		Interpreter.INTERPRETER.compileThreshold = 1;
 		Interpreter.INTERPRETER.populateBuiltins();
 	}
 
@@ -106,6 +131,27 @@ public class RödaTest {
 		assertEquals("37", eval("main{a:=9;push 1+a*4;}"));
 	}
 
+	@Test
+	public void testErroneousConstantCalculationIsNotEvaluatedBeforeExecution() {
+		assertEquals("2", eval("main{if [ 1 = 2 ] do push \"a\"-1 done;push 2}"));
+	}
+
+	@Test
+	public void testIntegerOperationsAroundSmallIntegers() {
+		assertEquals("1024,-129,1023,3,1,1024,<true>",
+			     eval("main{x:=1023;x++;push x;y:=-128;y--;push y;a:=1000;push a+23,a//300,a%3,2^10,a*2=2000}"));
+	}
+
+	@Test
+	public void testCalculationInRepeatedlyCalledFunction() {
+		assertEquals("2,3.5,12", eval("f x{push x+1}main{f 1;f 2.5;f 11}"));
+	}
+
+	@Test(expected=RödaException.class)
+	public void testErroneousConstantCalculation() {
+		eval("main{push \"a\"-1}");
+	}
+
 	@Test
 	public void testMultipleCalculatorAbbreviations() {
 		assertEquals("35,8", eval("main{a:=9;push a*4-1,a-1;}"));
@@ -124,6 +170,13 @@ public class RödaTest {
 					 + "main{r:=new S;r.a=5;r.b=9;push r.b, r.a}"));
 	}
 
+	@Test
+	public void testIsOperator() {
+		assertEquals("<true>,<true>,<false>,<true>,<true>,<false>,<true>",
+			     eval("record R{}record S:R{}main{s:=new S;r:=new R;"
+				  + "push(s is R, s is S, r is S, 1 is number, 1 is integer, \"a\" is number, [1] is list)}"));
+	}
+
 	@Test
 	public void testDefaultValues() {
 		assertEquals("Isabella", eval("f{push \"Isabella\"}"
@@ -262,6 +315,12 @@ public class RödaTest {
 				  + "main{give\"abba\",\"tuuli\",\"joki\",text=\"hey \";give\"pilvi\"}"));
 	}
 
+	@Test
+	public void testCallerNamespaceInNestedCalls() {
+		assertEquals("3,2",
+			     eval("f{push caller_namespace.y}g{y:=3;f}main{y:=2;g;f}"));
+	}
+
 	@Test
 	public void testTypeparametrizationInFunctions() {
 		assertEquals("Leila", eval("f<<T>>{push new list<<T>>}main{"
@@ -343,6 +402,52 @@ public class RödaTest {
 			     eval("main{ikä:=73;voimat:=10;ikä--;voimat++;push ikä, voimat}"));
 	}
 
+	@Test
+	public void testVariableInOuterScope() {
+		assertEquals("3,Maija",
+			     eval("main{i:=0;nimi:=\"Reetta\";while [ i < 3 ] do i++;nimi=\"Maija\" done;push i, nimi}"));
+	}
+
+	@Test
+	public void testVariableDeclaredAfterClosure() {
+		assertEquals("1,2",
+			     eval("main{x:=1;if true do f:={push x};f;x:=2;f;done}"));
+	}
+
+	@Test
+	public void testVariableCreatedViaCallerNamespace() {
+		assertEquals("2,1",
+			     eval("f{caller_namespace.x=2}main{x:=1;if true do f;push x;done;push x}"));
+	}
+
+	@Test
+	public void testLoopVariablesAreNotSharedBetweenIterations() {
+		assertEquals("<false>,<false>,2,4,6,<false>,<false>",
+			     eval("main{for i in [1, 2] do x?;x:=i;done;seq(1, 3)|for i do y:=i*2;push y;done;"
+				  + "i:=0;while [ i < 2 ] do z?;z:=i;i++;done}"));
+	}
+
+	@Test
+	public void testLoopVariablesCapturedInClosuresAndNamespaces() {
+		assertEquals("1,2,3",
+			     eval("main{fs:=[];for i in [1, 2, 3] do fs+={push i};done;for f in fs do f;done}"));
+		init();
+		assertEquals("1,3",
+			     eval("g{push caller_namespace}main{ns:=[];seq(1, 3)|for i do ns+=g();done;push ns[0].i, ns[2].i}"));
+	}
+
+	@Test
+	public void testLocalVariableUndefine() {
+		assertEquals("<true>,<false>",
+			     eval("main{x:=1;x?;undefine x;x?}"));
+	}
+
+	@Test
+	public void testUndefineShadowingVariable() {
+		assertEquals("<false>,assigned,outer",
+			     eval("main{x:=\"outer\";if true do x:=\"local\";undefine x;x?;x=\"assigned\";push x done;push x}"));
+	}
+
 	@Test(expected=RödaException.class)
 	public void testPushingStringVariable() {
 		assertEquals("abba",
@@ -470,12 +575,50 @@ public class RödaTest {
 			     eval("main{push\"b\";if true;do return;done;push\"a\"}"));
 	}
 
+	@Test
+	public void testCatchWithoutDebugging() {
+		Interpreter.INTERPRETER.enableDebug = false;
+		try {
+			assertEquals("virhe 1,0,virhe 2,0",
+				     eval("main{for i in [1,2] do try do error\"virhe \"..i;catch e;push e.message,#e.javastack;done;done}"));
+		} finally {
+			Interpreter.INTERPRETER.enableDebug = true;
+		}
+	}
+
+	@Test
+	public void testCallStackOfCaughtError() {
+		String stack = eval("f x{error\"virhe\"}main{try do f 1;catch e;push e.stack[i] for i in [seq(0, #e.stack-1)];done}");
+		assertTrue(stack.contains("calling <function 'f'> with argument 1\n\tat <test>:1"));
+		assertTrue(stack.contains("command f(1)\n\tat <test>:1"));
+	}
+
 	@Test
 	public void testReturningValue() {
 		assertEquals("Laila,Ella,Tuuli",
 			     eval("f{return\"Ella\";push\"Salla\"}main{push\"Laila\";f;push\"Tuuli\"}"));
 	}
 
+	@Test
+	public void testConditionsWithSeveralValues() {
+		assertEquals("a,c,0,1,2,4,6",
+			     eval("main{if [ TRUE, 1 < 2 ] do push\"a\";done;if [ TRUE, 2 < 1 ] do push\"b\";done;"
+				  + "unless [ 1 = 1, 2 = 3 ] do push\"c\";done;i:=0;while [ i < 3 ] do push i;i++;done;"
+				  + "push x*2 for x in [1, 2, 3] if [ x > 1, x < 4 ]}"));
+	}
+
+	@Test
+	public void testConditionWithStatementsAndStreams() {
+		assertEquals("b,c",
+			     eval("main{if push(TRUE, FALSE) do push\"a\";done;if push(TRUE)|identity do push\"b\";done;"
+				  + "if [ \"x\" =~ \"[a-z]\" ] do push\"c\";done}"));
+	}
+
+	@Test(expected=RödaException.class)
+	public void testNonBooleanCondition() {
+		eval("main{if [ FALSE, 1 ] do push\"a\";done}");
+	}
+
 	// Merkkijono-operaatiot
 
 	@Test
@@ -496,6 +639,15 @@ public class RödaTest {
 			     eval("main{nimi:=\"S.\";push \"Serkku \"..nimi..\" Muikku\"}"));
 	}
 
+	@Test
+	public void testRepeatedStringConcat() {
+		assertEquals("1000,890890,123123",
+			     eval("main{s:=\"\";seq(1, 1000)|for i do;s.=(i%10)done;push #s, s[-3:]..s[7:10], s[:3]..s[-10:-7]}"));
+		init();
+		assertEquals("300,301,301,xa,xb",
+			     eval("main{s:=\"x\"*300;a:=s..\"a\";b:=s..\"b\";a.=\"\";push #s, #a, #b, a[-2:], b[-2:]}"));
+	}
+
 	// Listaoperaatiot
 
 	@Test
@@ -623,6 +775,23 @@ public class RödaTest {
 				  + "if [ \"Henna\" in l ]; do push \"joo\"; else push \"ei\"; done}"));
 	}
 
+	@Test
+	public void testListWithMixedElementTypes() {
+		assertEquals("1 a 3,[1, a, 3, 4.5],[2.5, [1]]",
+			     eval("main{l:=[1, 2, 3];l[1]=\"a\";push l&\" \";l+=4.5;push l;m:=[1.5, 2.5];m[0]=[1];push([m[1], m[0]])}"));
+		init();
+		assertEquals("[x],[1, 2],[y, z]",
+			     eval("main{l:=[1];del l[0];l+=\"x\";push l;push([1, 2, \"y\", \"z\"][:2]);push([1, 2, \"y\", \"z\"][2:])}"));
+	}
+
+	@Test
+	public void testSumMinAndMaxOfLists() {
+		assertEquals("15,1,5,4.5,1.5",
+			     eval("main{l:=[3, 1, 5, 2, 4];push sum(l), min(l), max(l), sum([1.5, 3.0]), min([2.5, 1.5])}"));
+		init();
+		assertEquals("6.5,a", eval("main{push sum([1.5, 2, 3]), min([\"b\", \"a\"])}"));
+	}
+
 	// Karttaoperaatiot
 
 	@Test
@@ -684,6 +853,186 @@ public class RödaTest {
 			     eval("main{push([split(\"sanna ja teemu jokela\")])}"));
 	}
 	
+	@Test
+	public void testPipelineOfBuiltins() {
+		assertEquals("2,4,6", eval("main{seq 1, 10|filter{|x|;[ x % 2 = 0 ]}|head 3}"));
+		init();
+		assertEquals("30", eval("main{seq 1, 10|filter{|x|;[ x % 2 = 0 ]}|sum}"));
+	}
+
+	@Test
+	public void testPipelineOfBuiltinsAfterFunction() {
+		assertEquals("a,1,b,2", eval("f{push \"a b\", \"b\"}main{f|split|count}"));
+		init();
+		assertEquals("6,5", eval("main{seq 1, 3|sum([1, 2, 3], [5])}"));
+		init();
+		assertEquals("a-b,c", eval("main{push \"a b\", \"c\"|replace \" \", \"-\"|grep \".*\"|uniq}"));
+	}
+
+	@Test
+	public void testHeadStopsPipeline() {
+		assertEquals("1,2,3", eval("main{seq 1, 20000000|identity|head 3}"));
+	}
+
+	@Test(expected=RödaException.class)
+	public void testHeadOfShortPipeline() {
+		eval("main{seq 1, 2|identity|head 3}");
+	}
+
+	@Test
+	public void testSort() {
+		assertEquals("1,2,3,4,5", eval("main{push 3, 1, 5, 2, 4|sort}"));
+		init();
+		assertEquals("c,bb,aaa", eval("main{sort([\"aaa\", \"c\", \"bb\"], key={|x|;push #x})}"));
+	}
+
+	@Test
+	public void testSortHomogeneousValues() {
+		assertEquals("-3.5,0.25,1.0,2.5", eval("main{push 2.5, 1.0, -3.5, 0.25|sort}"));
+		init();
+		assertEquals("Aino,aino,ainoa,b", eval("main{push \"b\", \"ainoa\", \"aino\", \"Aino\"|sort}"));
+		init();
+		assertEquals("-9223372036854775808,-1,0,9223372036854775807",
+			     eval("main{push 0, 9223372036854775807, -1, -9223372036854775807-1|sort}"));
+	}
+
+	@Test
+	public void testMinAndMax() {
+		assertEquals("1,9", eval("main{push 3, 1, 9, 4|min;push 3, 1, 9, 4|max}"));
+		init();
+		assertEquals("a,c", eval("main{min([\"b\", \"a\", \"c\"]);max([\"b\", \"a\", \"c\"])}"));
+		init();
+		assertEquals("0.5", eval("main{push 2, 0.5, 1|min}"));
+	}
+
+	@Test
+	public void testSortComputesEachKeyOnce() {
+		assertEquals("5,4,3,2,1,5", eval("main{n:=0;push 5,3,1,4,2|sort key={|x|;n++;push -x};push n}"));
+		init();
+		assertEquals("[9, 1],[7, 2],[8, 3]",
+			     eval("main{push([8, 3], [9, 1], [7, 2])|sort key={|x|;push x[1]}, parallel=TRUE}"));
+	}
+
+	@Test
+	public void testSortWithSmallMemoryLimit() {
+		assertEquals("1,2,3,4,5,6,7,8,9,10", eval("main{seq 1, 10|for i do push 11-i done|sort memory=100}"));
+		init();
+		assertEquals("[1, a],[1, b],[2, a],[2, c],[3, b]",
+			     eval("main{push([2, \"c\"], [1, \"b\"], [3, \"b\"], [1, \"a\"], [2, \"a\"])|sort memory=150}"));
+		init();
+		assertEquals("a,b,c,d,e,f", eval("main{push \"d\", \"f\", \"a\", \"c\", \"e\", \"b\"|sort memory=1, key={|x|;push x}}"));
+	}
+
+	@Test
+	public void testParallelMapAndFilter() {
+		assertEquals("2,4,4,8,6,12", eval("main{seq 1, 3|parallelMap{|x|;push x*2, x*4}, workers=2}"));
+		init();
+		assertEquals("3,6,9,12,15", eval("main{seq 1, 15|parallelFilter{|x|;[ x % 3 = 0 ]}, workers=4}"));
+		init();
+		assertEquals("5050", eval("main{seq 1, 100|parallelMap{|x|;push x}, ordered=FALSE|sum}"));
+	}
+
+	@Test(expected=RödaException.class)
+	public void testParallelMapError() {
+		eval("main{seq 1, 10|parallelMap{|x|;error \"virhe\" if [ x = 7 ];push x}}");
+	}
+
+	@Test
+	public void testRegexCacheStats() {
+		assertEquals("<true>,<true>,<false>,x1y,4,<true>",
+			     eval("main{a:=regexCacheStats();p:=\"[a-z]([0-9])[a-z]\";"
+				  + "push \"x1y\"=~p, \"x2y\"=~p, \"x3\"=~p;push \"x1y\"|grep p;"
+				  + "b:=regexCacheStats();push b[\"hits\"]+b[\"misses\"]-a[\"hits\"]-a[\"misses\"], b[\"misses\"]-a[\"misses\"]<=1}"));
+		init();
+		assertEquals("<true>",
+			     eval("main{seq 1, 300|for i do;m:=\"a\"=~\"a{\"..i..\"}\"done;"
+				  + "s:=regexCacheStats();push s[\"size\"]=s[\"capacity\"]}"));
+	}
+
+	@Test
+	public void testJson() {
+		assertEquals("[MAP, [[b, [LIST, [[NUMBER, 1], [NUMBER, 2.5], [STRING, x\"y]]]], [a, [BOOLEAN, true]], [c, [NULL, null]]]]",
+			     eval("main{json \"{\\\"b\\\": [1, 2.5, \\\"x\\\\\\\"y\\\"], \\\"a\\\": true, \\\"c\\\": null}\"}"));
+	}
+
+	@Test
+	public void testJsonEvents() {
+		assertEquals("[a, 0],[NUMBER, 1],[a, 1, b],[STRING, c],[d],[LIST, []],[e],[MAP, []]",
+			     eval("main{push \"{\\\"a\\\": [1,\", \"{\\\"b\\\": \\\"c\\\"}],\", \"\\\"d\\\": [], \\\"e\\\": {}}\""
+				  + "|jsonEvents|for e do push e[0], e[1] done}"));
+		init();
+		assertEquals("[0, 0],[1, x],[2]",
+			     eval("main{push \"[1]\", \"{\\\"x\\\": 2}\", \"3\"|jsonEvents ndjson=TRUE|for e do push e[0] done}"));
+	}
+
+	@Test(expected=RödaException.class)
+	public void testJsonEventsSeveralDocuments() {
+		eval("main{push \"[1] [2]\"|jsonEvents}");
+	}
+
+	@Test(expected=RödaException.class)
+	public void testJsonEventsSeveralDocumentsOnOneLine() {
+		eval("main{push \"[1] [2]\"|jsonEvents ndjson=TRUE}");
+	}
+
+	@Test(expected=RödaException.class)
+	public void testJsonSyntaxError() {
+		eval("main{json \"[1,]\"}");
+	}
+
+	@Test
+	public void testToJson() {
+		assertEquals("[1,2.5,\"a\\\"b\\n\",true,{\"x\":[],\"y\":{}}]",
+			     eval("main{m:=new map;m[\"y\"]=new map;m[\"x\"]=new list<<integer>>;toJson([1, 2.5, \"a\\\"b\\n\", TRUE, m])}"));
+		init();
+		assertEquals("{\n  \"a\": [\n    1,\n    2\n  ]\n},\"s\"",
+			     eval("main{m:=new map;m[\"a\"]=[1, 2];push m, \"s\"|toJson pretty=TRUE}"));
+		init();
+		assertEquals("<true>", eval("main{s:=[toJson([seq(1, 5000)])];push #s>1 and s&\"\"=\"[\"..[seq(1, 5000)]&\",\"..\"]\"}"));
+	}
+
+	@Test
+	public void testToJsonRecord() {
+		assertEquals("{\"a\":1,\"b\":[\"c\"]}", eval("record R{a:integer;b:list}main{r:=new R;r.a=1;r.b=[\"c\"];toJson r}"));
+	}
+
+	@Test(expected=RödaException.class)
+	public void testToJsonCyclicValue() {
+		eval("main{m:=new map;m[\"m\"]=m;toJson m}");
+	}
+
+	@Test
+	public void testPipelineLongerThanPipeCapacity() {
+		assertEquals("2001000", eval("main{seq 1, 2000|{for x; do push x; done}|sum}"));
+	}
+
+	@Test(timeout=10000)
+	public void testPipelineWhereConsumerDoesNotReadInput() {
+		assertEquals("x", eval("main{seq 1, 5000|push \"x\"}"));
+	}
+
+	@Test(timeout=30000)
+	public void testNestedPipelinesWithEachScheduler() {
+		Scheduler original = Interpreter.scheduler;
+		try {
+			for (String name : Arrays.asList("threads", "forkjoin", "virtual")) {
+				Scheduler scheduler = Scheduler.byName(name);
+				if (scheduler == null) continue; // virtuaalisäikeitä ei ole vanhoissa JVM:issä
+				Interpreter.scheduler = scheduler;
+				init();
+				assertEquals("10100", eval("main{seq 1, 100|for i do push i|{for x; do push x*2; done}|sum; done|sum}"));
+				scheduler.shutdown();
+			}
+		} finally {
+			Interpreter.scheduler = original;
+		}
+	}
+
+	@Test(expected=RödaException.class)
+	public void testPipelineOfBuiltinsWithError() {
+		eval("main{push 1, \"a\"|sum}");
+	}
+	
 	@Test
 	public void testInterleave() {
 		assertEquals("1,4,7,2,5,8,3,6,9", eval("main{interleave([1,2,3],[4,5,6],[7,8,9])}"));
@@ -746,4 +1095,114 @@ public class RödaTest {
 				      "<test>", in, out);
 		assertEquals("Eveliina,Venla,2", getResults());
 	}
+
+	// Tiedostot
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private void interpretFile(File file) {
+		RödaStream in = makeStream(v -> {}, () -> null, () -> {}, () -> true);
+		RödaStream out = makeStream(v -> results.add(v), () -> null, () -> {}, () -> true);
+		Interpreter.INTERPRETER.interpretFile(file, new ArrayList<>(), file.getName(), in, out);
+	}
+
+	@Test
+	public void testJsonEventsFromFile() throws IOException {
+		File file = folder.newFile("tiedot.json");
+		Files.write(file.toPath(), "{\"a\": [1, 2],\n \"b\": \"ä\"}\n".getBytes(StandardCharsets.UTF_8));
+		assertEquals("[a, 0],1,[a, 1],2,[b],ä",
+			     eval("main{jsonEvents \"" + file.getAbsolutePath() + "\"|for e do push e[0], e[1][1] done}"));
+	}
+
+	@Test
+	public void testReadLines() throws IOException {
+		File file = folder.newFile("rivit.txt");
+		StringBuilder text = new StringBuilder("ä\r\n\n");
+		for (int i = 2; i < 3000; i++) text.append("rivi ").append(i).append('\n');
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+		String name = "\"" + file.getAbsolutePath() + "\"";
+		assertEquals("ä,,rivi 2", eval("main{readLines " + name + ", limit=3}"));
+		init();
+		// toisella kerralla ohitus alkaa rivi-indeksistä
+		assertEquals("rivi 2500,rivi 2501,rivi 2999,rivi 2048",
+			     eval("main{readLines " + name + ", skip=2500, limit=2;readLines " + name + ", skip=2999;"
+				  + "readLines " + name + ", skip=2048, limit=1}"));
+		init();
+		assertEquals("rivi 3,rivi 4", eval("main{readLines " + name + ", offset=6, end=20}"));
+	}
+
+	@Test
+	public void testReadLinesLineTerminators() throws IOException {
+		File file = folder.newFile("rivit.txt");
+		Files.write(file.toPath(), "a\rb\r\nc\n\rd".getBytes(StandardCharsets.UTF_8));
+		String name = "\"" + file.getAbsolutePath() + "\"";
+		assertEquals("a,b,c,,d", eval("main{readLines " + name + "}"));
+		init();
+		assertEquals("c,", eval("main{readLines " + name + ", offset=3, end=8}"));
+	}
+
+	@Test(expected=RödaException.class)
+	public void testReadLinesMalformed() throws IOException {
+		File file = folder.newFile("rivit.txt");
+		Files.write(file.toPath(), new byte[] { 'a', '\n', (byte) 0xff, '\n' });
+		eval("main{readLines \"" + file.getAbsolutePath() + "\"}");
+	}
+
+	@Test
+	public void testReadLinesFromProc() {
+		File file = new File("/proc/self/status");
+		Assume.assumeTrue(file.exists());
+		assertEquals("<true>", eval("main{push(#[readLines(\"/proc/self/status\")] > 0)}"));
+		init();
+		assertEquals("[0, -1]", eval("main{lineRanges \"/proc/self/status\", 4}"));
+	}
+
+	@Test
+	public void testLineRanges() throws IOException {
+		File file = folder.newFile("rivit.txt");
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) text.append(i).append('\n');
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+		String name = "\"" + file.getAbsolutePath() + "\"";
+		assertEquals("4,499500,1000",
+			     eval("main{push #[lineRanges(" + name + ", 4)];s:=0;c:=0;lineRanges " + name + ", 4|for x do "
+				  + "readLines " + name + ", offset=x[0], end=x[1] done|for l do s+=parseInteger(l);c++ done;push s, c}"));
+		init();
+		assertEquals("[0, 8]", eval("main{lineRanges " + name + ", 500|head 1}"));
+	}
+
+	@Test
+	public void testRecordsWithSameNameInDifferentNamespaces() throws IOException {
+		File a = folder.newFile("a.röd"), b = folder.newFile("b.röd");
+		Files.write(a.toPath(), "record R{a:integer}make{push new R}".getBytes(StandardCharsets.UTF_8));
+		Files.write(b.toPath(), "record R{b:integer;c:integer}make{push new R}".getBytes(StandardCharsets.UTF_8));
+		assertEquals("a,b,c",
+			     eval("main{x:=importNamespace(\"" + a.getAbsolutePath() + "\");"
+				  + "y:=importNamespace(\"" + b.getAbsolutePath() + "\");"
+				  + "push f.name for f in (typeof x.make()).fields;push f.name for f in (typeof y.make()).fields}"));
+	}
+
+	@Test
+	public void testInterpretFileWithAstCache() throws IOException {
+		File file = folder.newFile("ohjelma.röd");
+		Files.write(file.toPath(), "main{push 1}".getBytes(StandardCharsets.UTF_8));
+		Interpreter.INTERPRETER.astCache = new AstCache(folder.newFolder("cache"));
+		try {
+			interpretFile(file);
+			interpretFile(file);
+			// sama pituus, eri sisältö ja muokkausaika
+			Files.write(file.toPath(), "main{push 2}".getBytes(StandardCharsets.UTF_8));
+			file.setLastModified(file.lastModified() + 2000);
+			interpretFile(file);
+			// sama pituus ja muokkausaika, eri sisältö
+			long modified = file.lastModified();
+			Files.write(file.toPath(), "main{push 3}".getBytes(StandardCharsets.UTF_8));
+			file.setLastModified(modified);
+			interpretFile(file);
+			assertEquals("1,1,2,3", getResults());
+		} finally {
+			Interpreter.INTERPRETER.astCache = null;
+		}
+	}
 }